@@ -4,11 +4,17 @@ import com.ethercamp.contrdata.contract.Ast;
 import com.ethercamp.contrdata.contract.ContractData;
 import com.ethercamp.contrdata.contract.Member;
 import com.ethercamp.contrdata.contract.Members;
+import com.ethercamp.contrdata.storage.PageCursor;
 import com.ethercamp.contrdata.storage.Path;
 import com.ethercamp.contrdata.storage.Storage;
+import com.ethercamp.contrdata.storage.StorageCursorPage;
+import com.ethercamp.contrdata.storage.StorageDiff;
+import com.ethercamp.contrdata.storage.StorageDiffStore;
 import com.ethercamp.contrdata.storage.StorageEntry;
+import com.ethercamp.contrdata.storage.StorageKeyIndex;
 import com.ethercamp.contrdata.storage.StoragePage;
 import com.ethercamp.contrdata.storage.dictionary.Layout;
+import com.ethercamp.contrdata.storage.dictionary.PathKey;
 import com.ethercamp.contrdata.storage.dictionary.StorageDictionary;
 import com.ethercamp.contrdata.storage.dictionary.StorageDictionaryDb;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -21,13 +27,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.function.Function;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.String.format;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.StringUtils.isEmpty;
 import static org.ethereum.util.ByteUtil.intToBytes;
 import static org.ethereum.util.ByteUtil.toHexString;
 
@@ -39,6 +50,10 @@ public class ContractDataService {
     private StorageDictionaryDb dictionaryDb;
     @Autowired
     private Storage storage;
+    @Autowired
+    private StorageDiffStore diffStore;
+    @Autowired
+    private StorageKeyIndex keyIndex;
 
     public StoragePage getStorageEntries(byte[] address, int page, int size) {
         List<StorageEntry> entries = emptyList();
@@ -50,21 +65,31 @@ public class ContractDataService {
             int toIndex = min(storageSize, offset + size);
 
             if (fromIndex < toIndex) {
-                List<DataWord> keys = storage.keys(address).stream()
-                        .sorted()
-                        .collect(toList())
-                        .subList(fromIndex, toIndex);
-
-                entries = storage.entries(address, keys).entrySet().stream()
-                        .map(StorageEntry::raw)
-                        .sorted()
-                        .collect(toList());
+                entries = rawEntries(address, keyIndex.keys(address, fromIndex, toIndex - fromIndex));
             }
         }
 
         return new StoragePage(entries, page, size, storageSize);
     }
 
+    /**
+     * @param cursor {@link StorageCursorPage#getNextCursor()} of the previous page, null for the first page
+     */
+    public StorageCursorPage getStorageEntries(byte[] address, String cursor, int size) {
+        DataWord after = isEmpty(cursor) ? null : new DataWord(Hex.decode(cursor));
+        List<DataWord> keys = keyIndex.keysAfter(address, after, size);
+        String nextCursor = (keys.isEmpty() || keys.size() < size) ? null : Hex.toHexString(keys.get(keys.size() - 1).getData());
+
+        return new StorageCursorPage(rawEntries(address, keys), size, storage.size(address), nextCursor);
+    }
+
+    private List<StorageEntry> rawEntries(byte[] address, List<DataWord> keys) {
+        return storage.entries(address, keys).entrySet().stream()
+                .map(StorageEntry::raw)
+                .sorted()
+                .collect(toList());
+    }
+
     private StorageDictionary getDictionary(byte[] address) {
         return dictionaryDb.getDictionaryFor(Layout.Lang.solidity, address);
     }
@@ -74,13 +99,13 @@ public class ContractDataService {
     }
 
     public StoragePage getStructuredStorageEntries(byte[] address, StorageDictionary dictionary, Path path, int page, int size) {
+        return getStructuredStorageEntries(storage, address, dictionary, path, page, size);
+    }
 
+    private StoragePage getStructuredStorageEntries(Storage storage, byte[] address, StorageDictionary dictionary, Path path, int page, int size) {
         try {
             StorageDictionary.PathElement pathElement = dictionary.getByPath(path.parts());
-            List<StorageEntry> entries = pathElement
-                    .getChildren(page * size, size).stream()
-                    .map(pe -> StorageEntry.structured(pe, key -> storage.get(address, key)))
-                    .collect(toList());
+            List<StorageEntry> entries = structuredEntries(storage, address, pathElement.getChildren(page * size, size));
 
             return new StoragePage(entries, page, size, pathElement.getChildrenCount());
         } catch (Exception e) {
@@ -88,12 +113,74 @@ public class ContractDataService {
                     .add("address", address)
                     .add("path", path)
                     .add("storageDictionary", dictionary.dmp())
-                    .add("storage", storageEntries(address))
+                    .add("storage", storageEntries(storage, address))
                     .toJson());
             throw e;
         }
     }
 
+    /**
+     * @param cursor {@link StorageCursorPage#getNextCursor()} of the previous page, null for the first page
+     */
+    public StorageCursorPage getStructuredStorageEntries(byte[] address, StorageDictionary dictionary, Path path, String cursor, int size) {
+        PageCursor after = PageCursor.decode(cursor);
+        if (nonNull(after) && !after.is(PageCursor.Kind.Child)) {
+            throw new IllegalArgumentException("Page cursor doesn't match the element children.");
+        }
+
+        try {
+            StorageDictionary.PathElement pathElement = dictionary.getByPath(path.parts());
+            List<StorageDictionary.PathElement> children = pathElement.getChildrenAfter(isNull(after) ? null : after.getChildHash(), size);
+            List<StorageEntry> entries = structuredEntries(storage, address, children);
+
+            String nextCursor = nextCursor(children, size, pe -> PageCursor.afterChild(pe.storageKey));
+            return new StorageCursorPage(entries, size, pathElement.getChildrenCount(), nextCursor);
+        } catch (Exception e) {
+            log.error(DetailedMsg.withTitle("Cannot build contract structured storage:")
+                    .add("address", address)
+                    .add("path", path)
+                    .add("cursor", cursor)
+                    .add("storageDictionary", dictionary.dmp())
+                    .add("storage", storageEntries(storage, address))
+                    .toJson());
+            throw e;
+        }
+    }
+
+    /**
+     * Values of the whole page are fetched by a single storage request.
+     */
+    private static List<StorageEntry> structuredEntries(Storage storage, byte[] address, List<StorageDictionary.PathElement> children) {
+        List<DataWord> keys = children.stream()
+                .filter(pe -> !pe.hasChildren())
+                .map(pe -> new DataWord(pe.storageKey))
+                .collect(toList());
+        Map<DataWord, DataWord> values = fetch(storage, address, keys);
+
+        return children.stream()
+                .map(pe -> StorageEntry.structured(pe, values::get))
+                .collect(toList());
+    }
+
+    private static List<StorageEntry> smartEntries(Storage storage, byte[] address, List<ContractData.Element> children) {
+        List<DataWord> keys = children.stream()
+                .flatMap(el -> el.getStorageKeys().stream())
+                .collect(toList());
+        Map<DataWord, DataWord> values = fetch(storage, address, keys);
+
+        return children.stream()
+                .map(el -> StorageEntry.smart(el, values::get))
+                .collect(toList());
+    }
+
+    private static Map<DataWord, DataWord> fetch(Storage storage, byte[] address, List<DataWord> keys) {
+        return keys.isEmpty() ? emptyMap() : storage.entries(address, keys);
+    }
+
+    private static <T> String nextCursor(List<T> page, int size, Function<T, PageCursor> toCursor) {
+        return (page.isEmpty() || page.size() < size) ? null : toCursor.apply(page.get(page.size() - 1)).encode();
+    }
+
     public Map<String, String> exportDictionary(byte[] address, Path path) {
         Map<String, String> result = new HashMap<>();
 
@@ -131,20 +218,39 @@ public class ContractDataService {
         return getStructuredStorageEntries(addr, dictionary, path, page, size);
     }
 
+    public StorageCursorPage getStructuredStorageEntries(String address, Path path, String cursor, int size) {
+        byte[] addr = Hex.decode(address);
+        StorageDictionary dictionary = getDictionary(addr);
+
+        return getStructuredStorageEntries(addr, dictionary, path, cursor, size);
+    }
+
+    /**
+     * Diff recorded by {@link StorageDiffStore} has the changed slots of every contract touched by the transaction,
+     * transactions executed before it was introduced are read from the per-transaction storage.
+     */
+    private Storage getTxStorage(byte[] txHash, byte[] contractAddress) {
+        StorageDiff diff = diffStore.get(txHash);
+        return isNull(diff) ? storage : diff.asStorage(contractAddress);
+    }
+
     public StoragePage getStructuredStorageDiffEntries(String transactionHash, String address, Path path, int page, int size) {
         byte[] contractAddress = Hex.decode(address);
         byte[] txHash = Hex.decode(transactionHash);
-        StorageDictionary dictionary = getDictionary(contractAddress, storage.keys(txHash));
+        Storage txStorage = getTxStorage(txHash, contractAddress);
+        StorageDictionary dictionary = getDictionary(contractAddress, txStorage.keys(txHash));
 
-        return getStructuredStorageEntries(txHash, dictionary, path, page, size);
+        return getStructuredStorageEntries(txStorage, txHash, dictionary, path, page, size);
     }
 
     public StoragePage getContractData(byte[] address, ContractData contractData, boolean ignoreEmpty, Path path, int page, int size) {
+        return getContractData(storage, address, contractData, ignoreEmpty, path, page, size);
+    }
+
+    private StoragePage getContractData(Storage storage, byte[] address, ContractData contractData, boolean ignoreEmpty, Path path, int page, int size) {
         try {
             ContractData.Element element = contractData.elementByPath(path.parts());
-            List<StorageEntry> entries = element.getChildren(page, size, ignoreEmpty).stream()
-                    .map(el -> StorageEntry.smart(el, key -> storage.get(address, key)))
-                    .collect(toList());
+            List<StorageEntry> entries = smartEntries(storage, address, element.getChildren(page, size, ignoreEmpty));
 
             return new StoragePage(entries, page, size, element.getChildrenCount());
         } catch (Exception e) {
@@ -153,12 +259,44 @@ public class ContractDataService {
                     .add("path", path)
                     .add("dataMembers", contractData.getContract())
                     .add("storageDictionary", contractData.getDictionary().dmp())
-                    .add("storage", storageEntries(address))
+                    .add("storage", storageEntries(storage, address))
+                    .toJson());
+            throw e;
+        }
+    }
+
+    /**
+     * @param cursor {@link StorageCursorPage#getNextCursor()} of the previous page, null for the first page
+     */
+    public StorageCursorPage getContractData(byte[] address, ContractData contractData, boolean ignoreEmpty, Path path, String cursor, int size) {
+        try {
+            ContractData.Element element = contractData.elementByPath(path.parts());
+            List<ContractData.Element> children = element.getChildren(PageCursor.decode(cursor), size, ignoreEmpty);
+            List<StorageEntry> entries = smartEntries(storage, address, children);
+
+            String nextCursor = nextCursor(children, size, ContractData.Element::toCursor);
+            return new StorageCursorPage(entries, size, element.getChildrenCount(ignoreEmpty), nextCursor);
+        } catch (Exception e) {
+            log.error(DetailedMsg.withTitle("Cannot build smart contract data:")
+                    .add("address", address)
+                    .add("path", path)
+                    .add("cursor", cursor)
+                    .add("dataMembers", contractData.getContract())
+                    .add("storageDictionary", contractData.getDictionary().dmp())
+                    .add("storage", storageEntries(storage, address))
                     .toJson());
             throw e;
         }
     }
 
+    public StorageCursorPage getContractData(String address, String contractDataJson, Path path, String cursor, int size) {
+        byte[] contractAddress = Hex.decode(address);
+        StorageDictionary dictionary = getDictionary(contractAddress);
+        ContractData contractData = ContractData.parse(contractDataJson, dictionary);
+
+        return getContractData(contractAddress, contractData, false, path, cursor, size);
+    }
+
     public StoragePage getContractData(String address, String contractDataJson, Path path, int page, int size) {
         byte[] contractAddress = Hex.decode(address);
         StorageDictionary dictionary = getDictionary(contractAddress);
@@ -167,6 +305,22 @@ public class ContractDataService {
         return getContractData(contractAddress, contractData, false, path, page, size);
     }
 
+    /**
+     * Decoded value of a single elementary element, e.g. balances[0xabc...] or items[5].field.
+     * Slot is calculated from the contract layout, so the lookup doesn't walk the dictionary.
+     */
+    public String lookupValue(byte[] address, ContractData contractData, Path path) {
+        ContractData.Element element = contractData.elementByPath(path.parts());
+        return element.lookupValue(key -> storage.get(address, key));
+    }
+
+    public String lookupValue(String address, String contractDataJson, String humanReadablePath) {
+        byte[] contractAddress = Hex.decode(address);
+        ContractData contractData = ContractData.parse(contractDataJson, getDictionary(contractAddress));
+
+        return lookupValue(contractAddress, contractData, Path.parseHumanReadable(humanReadablePath, contractData));
+    }
+
     /**
      * Fill dictionary with missing properties.
      * Useful when if indexing started not from zero block
@@ -185,7 +339,7 @@ public class ContractDataService {
             if (member.getType().isElementary()) {
                 final StorageDictionary.PathElement pe = new StorageDictionary.PathElement();
                 pe.type = StorageDictionary.PathElement.Type.StorageIndex;
-                pe.key = String.valueOf(member.getStorageIndex() + addition);
+                pe.key = PathKey.of(member.getStorageIndex() + addition);
                 pe.storageKey = new DataWord(intToBytes(member.getStorageIndex() + addition)).getData();
 
                 root.addChild(pe);
@@ -201,7 +355,7 @@ public class ContractDataService {
                 for (int i = 0; i < array.getSize(); i++) {
                     final Ast.Variable variable = new Ast.Variable();
                     variable.setType(array.getElementType());
-                    Member subMember = new Member(null, variable, contractData);
+                    Member subMember = new Member(null, variable, contractData.getLayout());
                     fillKeys(contractData, root, Arrays.asList(subMember), member.getStorageIndex() + i);
                 }
             } else {
@@ -213,10 +367,11 @@ public class ContractDataService {
     public StoragePage getContractDataDiff(String transactionHash, String address, String contractDataJson, Path path, int page, int size) {
         byte[] contractAddress = Hex.decode(address);
         byte[] txHash = Hex.decode(transactionHash);
-        StorageDictionary dictionary = getDictionary(contractAddress, storage.keys(txHash));
+        Storage txStorage = getTxStorage(txHash, contractAddress);
+        StorageDictionary dictionary = getDictionary(contractAddress, txStorage.keys(txHash));
         ContractData contractData = ContractData.parse(contractDataJson, dictionary);
 
-        return getContractData(txHash, contractData, true, path, page, size);
+        return getContractData(txStorage, txHash, contractData, true, path, page, size);
     }
 
     private static class DetailedMsg extends LinkedHashMap<String, Object> {
@@ -251,6 +406,10 @@ public class ContractDataService {
     }
 
     public Map<DataWord, DataWord> storageEntries(byte[] address) {
+        return storageEntries(storage, address);
+    }
+
+    private static Map<DataWord, DataWord> storageEntries(Storage storage, byte[] address) {
         Set<DataWord> keys = storage.keys(address);
         return storage.entries(address, new ArrayList<>(keys));
     }
@@ -1,16 +1,39 @@
 package com.ethercamp.contrdata.config;
 
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionaryVmHook;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.datasource.LevelDbDataSource;
+import org.ethereum.facade.Ethereum;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
+import javax.annotation.PostConstruct;
+
+import static java.util.Objects.nonNull;
+
 @Configuration
 @ComponentScan("com.ethercamp.contrdata")
 public class ContractDataConfig {
 
+    @Autowired(required = false)
+    private Ethereum ethereum;
+    @Autowired
+    private StorageDictionaryVmHook vmHook;
+
+    /**
+     * Dictionary changes are applied on block import, so the hook listens to the node events.
+     * Without the node (e.g. standalone blockchain) the hook should be added as a listener by the owner of the blockchain.
+     */
+    @PostConstruct
+    public void registerVmHookListener() {
+        if (nonNull(ethereum)) {
+            ethereum.addListener(vmHook);
+        }
+    }
+
     @Bean
     public SystemProperties systemProperties() {
         return SystemProperties.getDefault();
@@ -22,4 +45,11 @@ public class ContractDataConfig {
         dataSource.init();
         return dataSource;
     }
+
+    @Bean
+    public KeyValueDataSource storageDiff() {
+        LevelDbDataSource dataSource = new LevelDbDataSource("storageDiff");
+        dataSource.init();
+        return dataSource;
+    }
 }
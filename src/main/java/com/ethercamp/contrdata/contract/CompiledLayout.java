@@ -0,0 +1,141 @@
+package com.ethercamp.contrdata.contract;
+
+import com.ethercamp.contrdata.utils.Keccak256;
+import com.ethercamp.contrdata.utils.LruCache;
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Storage layout of a contract: data members, struct fields and enum values.
+ * <p>
+ * Layout doesn't depend on the contract storage dictionary, so it's built once per contract definition
+ * and shared by the {@link ContractData} instances of all the requests. It isn't modified after creation,
+ * so it's safe to use from multiple threads. Storage indexes and slot counts of the members, the structs and
+ * all the nested types are calculated on creation, so decoding doesn't recurse through the members.
+ */
+public final class CompiledLayout {
+
+    public static final int DEFAULT_CACHE_SIZE = 1_000;
+
+    private static final LruCache<ByteArrayWrapper, CompiledLayout> CACHE = new LruCache<>(DEFAULT_CACHE_SIZE);
+
+    private final Ast.Contract contract;
+    private final Members contractMembers;
+    private final Map<String, Members> structFields;
+    private final Map<String, List<String>> enumValues;
+    private final Map<String, Integer> structSlotsCounts;
+    // sizes in bytes and slot counts of the types the layout consists of, by type instance
+    private final Map<Ast.Type, Integer> typeSizes = new IdentityHashMap<>();
+    private final Map<Ast.Type, Integer> typeSlotsCounts = new IdentityHashMap<>();
+
+    public CompiledLayout(Ast.Contract contract) {
+        this.contract = contract;
+        this.contractMembers = Members.ofContract(this);
+        this.structFields = unmodifiableMap(contract.getStructures().stream()
+                .collect(toMap(Ast.Structure::getName, struct -> Members.ofStructure(this, struct))));
+        this.enumValues = unmodifiableMap(contract.getEnums().stream()
+                .collect(toMap(Ast.Enum::getName, anEnum -> unmodifiableList(anEnum.getValues().stream().map(Ast.EnumValue::getName).collect(toList())))));
+
+        // storage indexes depend on the sizes of the structs, so they can be calculated once all the members are known
+        contractMembers.forEach(Member::getStorageIndex);
+        structFields.values().forEach(fields -> fields.forEach(Member::getStorageIndex));
+        this.structSlotsCounts = unmodifiableMap(structFields.entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, entry -> entry.getValue().reservedSlotsCount())));
+
+        contractMembers.forEach(member -> registerType(member.getType()));
+        structFields.values().forEach(fields -> fields.forEach(member -> registerType(member.getType())));
+    }
+
+    private void registerType(Ast.Type type) {
+        if (typeSizes.containsKey(type)) return;
+
+        if (type.isArray()) {
+            registerType(type.asArray().getElementType());
+        } else if (type.isMapping()) {
+            registerType(type.asMapping().getValueType());
+        }
+        typeSizes.put(type, Member.size(type));
+        typeSlotsCounts.put(type, calculateSlotsCount(type));
+    }
+
+    private int calculateSlotsCount(Ast.Type type) {
+        if (type.isStruct()) {
+            return getSlotsCount(type.asStruct());
+        }
+        if (type.isStaticArray()) {
+            Ast.Type.Array array = type.asArray();
+            Ast.Type elementType = array.getElementType();
+            if (elementType.isStruct() || elementType.isStaticArray()) {
+                return array.getSize() * getSlotsCount(elementType);
+            }
+            return (int) Math.ceil((float) array.getSize() * getSize(elementType) / Member.BYTES_IN_SLOT);
+        }
+        return 1;
+    }
+
+    /**
+     * @param asJson contract definition, layouts of the same definition are cached by its hash
+     */
+    public static CompiledLayout compile(String asJson) {
+        ByteArrayWrapper hash = new ByteArrayWrapper(Keccak256.hash(asJson.getBytes(UTF_8)));
+        return CACHE.computeIfAbsent(hash, h -> new CompiledLayout(Ast.Contract.fromJson(asJson)));
+    }
+
+    public static LruCache<ByteArrayWrapper, CompiledLayout> getCache() {
+        return CACHE;
+    }
+
+    public Ast.Contract getContract() {
+        return contract;
+    }
+
+    public Members getMembers() {
+        return contractMembers;
+    }
+
+    public Members getStructFields(Ast.Type.Struct struct) {
+        return getStructFields(struct.getType());
+    }
+
+    public Members getStructFields(String name) {
+        return structFields.get(name);
+    }
+
+    public int getSlotsCount(Ast.Type.Struct struct) {
+        return structSlotsCounts.get(struct.getType());
+    }
+
+    /**
+     * @return bytes taken by the value of the type in its slot
+     */
+    public int getSize(Ast.Type type) {
+        Integer result = typeSizes.get(type);
+        return isNull(result) ? Member.size(type) : result;
+    }
+
+    /**
+     * @return slots reserved by the value of the type (struct fields and static array items included)
+     */
+    public int getSlotsCount(Ast.Type type) {
+        Integer result = typeSlotsCounts.get(type);
+        return isNull(result) ? calculateSlotsCount(type) : result;
+    }
+
+    public List<String> getEnumValues(Ast.Type.Enum enumType) {
+        return enumValues.get(enumType.getType());
+    }
+
+    public String getEnumValueByOrdinal(Ast.Type.Enum enumType, int ordinal) {
+        return getEnumValues(enumType).get(ordinal);
+    }
+}
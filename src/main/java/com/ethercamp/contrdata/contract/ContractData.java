@@ -1,7 +1,11 @@
 package com.ethercamp.contrdata.contract;
 
+import com.ethercamp.contrdata.storage.PageCursor;
 import com.ethercamp.contrdata.storage.Path;
+import com.ethercamp.contrdata.storage.dictionary.PathKey;
 import com.ethercamp.contrdata.storage.dictionary.StorageDictionary;
+import com.ethercamp.contrdata.utils.LruCache;
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import org.apache.commons.lang3.ArrayUtils;
@@ -16,6 +20,7 @@ import java.util.regex.Pattern;
 import java.util.stream.IntStream;
 
 import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.lang.Math.min;
 import static java.util.Collections.emptyList;
 import static java.util.Objects.isNull;
@@ -29,60 +34,65 @@ import static org.ethereum.util.ByteUtil.toHexString;
 public class ContractData {
 
     private static final Pattern DATA_WORD_PATTERN = Pattern.compile("[0-9a-fA-f]{64}");
+    public static final int TRANSLATE_CACHE_SIZE = 10_000;
 
-    private final Ast.Contract contract;
-    private final Map<String, Members> structFields;
-    private final Members contractMembers;
-    private final Map<String, List<String>> enumValues;
+    private final CompiledLayout layout;
 
     public ContractData(Ast.Contract contract, StorageDictionary dictionary) {
+        this(new CompiledLayout(contract), dictionary);
+    }
+
+    public ContractData(CompiledLayout layout, StorageDictionary dictionary) {
+        this.layout = layout;
         this.dictionary = dictionary;
-        this.contract = contract;
-        this.contractMembers = Members.ofContract(this);
-        this.structFields = contract.getStructures().stream().collect(toMap(Ast.Structure::getName, struct -> Members.ofStructure(this, struct)));
-        this.enumValues = contract.getEnums().stream()
-                .collect(toMap(Ast.Enum::getName, anEnum -> anEnum.getValues().stream().map(Ast.EnumValue::getName).collect(toList())));
+    }
+
+    public CompiledLayout getLayout() {
+        return layout;
     }
 
     public Members getStructFields(Ast.Type.Struct struct) {
-        return getStructFields(struct.getType());
+        return layout.getStructFields(struct);
     }
 
     public Members getStructFields(String name) {
-        return structFields.get(name);
+        return layout.getStructFields(name);
     }
 
     public Members getMembers() {
-        return contractMembers;
+        return layout.getMembers();
     }
 
     public Ast.Contract getContract() {
-        return contract;
+        return layout.getContract();
     }
 
     public List<String> getEnumValues(Ast.Type.Enum enumType) {
-        return enumValues.get(enumType.getType());
+        return layout.getEnumValues(enumType);
     }
 
     public String getEnumValueByOrdinal(Ast.Type.Enum enumType, int ordinal) {
-        return getEnumValues(enumType).get(ordinal);
+        return layout.getEnumValueByOrdinal(enumType, ordinal);
     }
 
+    /**
+     * Only the dictionary binding is created per call, layouts are cached by the JSON, see {@link CompiledLayout#compile(String)}.
+     */
     public static ContractData parse(String asJson, StorageDictionary dictionary) {
-        Ast.Contract contract = Ast.Contract.fromJson(asJson);
-        return new ContractData(contract, dictionary);
+        return new ContractData(CompiledLayout.compile(asJson), dictionary);
     }
 
     @Getter
     private StorageDictionary dictionary;
-    private Map<Element, StorageDictionary.PathElement> elementTranslateMap = new HashMap<>();
+    // dictionary elements by element path key, so that the instance can be shared by request threads
+    private final LruCache<String, StorageDictionary.PathElement> elementTranslateMap = new LruCache<>(TRANSLATE_CACHE_SIZE);
+
+    public LruCache<String, StorageDictionary.PathElement> getElementTranslateCache() {
+        return elementTranslateMap;
+    }
 
     private StorageDictionary.PathElement translateToPathElement(Element element) {
-        return elementTranslateMap.computeIfAbsent(element, el -> {
-            String[] parts = el.dictionaryPath().parts();
-            StorageDictionary.PathElement result = dictionary.getByPath(parts);
-            return result;
-        });
+        return elementTranslateMap.computeIfAbsent(element.pathKey(), key -> dictionary.getByPath(element.dictionaryPath().parts()));
     }
 
     public Element elementByPath(Object... pathParts) {
@@ -114,6 +124,13 @@ public class ContractData {
             return Path.empty();
         }
 
+        /**
+         * Unique key of the element path, calculated once per element.
+         */
+        protected String pathKey() {
+            return "";
+        }
+
         public StorageDictionary.PathElement toDictionaryPathElement() {
             return translateToPathElement(this);
         }
@@ -130,6 +147,20 @@ public class ContractData {
             return getChildren(page, size, false);
         }
 
+        /**
+         * Children following the one the cursor points to, see {@link #toCursor()}.
+         *
+         * @param after null for the first page
+         */
+        public abstract List<Element> getChildren(PageCursor after, int size, boolean ignoreEmpty);
+
+        /**
+         * @return cursor to continue the children of the parent element right after this one
+         */
+        public PageCursor toCursor() {
+            throw new UnsupportedOperationException();
+        }
+
         public List<Element> getAllChildren() {
             return getChildren(0, getChildrenCount());
         }
@@ -154,6 +185,21 @@ public class ContractData {
             throw new UnsupportedOperationException();
         }
 
+        /**
+         * Point lookup of the element value: the slot is calculated from the layout, see {@link ElementImpl#getStorageSlot()},
+         * so the value doesn't depend on the dictionary, which is used only for elements that can't be addressed directly.
+         */
+        public String lookupValue(Function<DataWord, DataWord> valueExtractor) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Storage slots the value of the element is decoded from, so that they can be fetched in advance.
+         */
+        public List<DataWord> getStorageKeys() {
+            return emptyList();
+        }
+
         public boolean isRoot() {
             return false;
         }
@@ -184,26 +230,48 @@ public class ContractData {
                     .collect(toList());
         }
 
+        @Override
+        public List<Element> getChildren(PageCursor after, int size, boolean ignoreEmpty) {
+            Members members = ignoreEmpty ? getExistedMembers() : getMembers();
+            return members.after(positionAfter(after), size).stream()
+                    .map(member -> new ElementImpl(member, this))
+                    .collect(toList());
+        }
+
         private Members getExistedMembers() {
-            Set<Integer> storageIndexes = toDictionaryPathElement().getChildrenStream().map(pe -> toInt(pe.key)).collect(toSet());
+            Set<Integer> storageIndexes = toDictionaryPathElement().getChildrenStream()
+                    .filter(pe -> pe.key.is(PathKey.Kind.Int))
+                    .map(pe -> pe.key.intValue())
+                    .collect(toSet());
             return getMembers().filter(m -> storageIndexes.contains(m.getStorageIndex()));
         }
     }
 
     @Getter
-    @EqualsAndHashCode(of = {"id", "name", "parent"})
+    @EqualsAndHashCode(of = "pathKey", callSuper = false)
     public class ElementImpl extends Element {
 
         private final String id;
         private final Ast.Type type;
         private final Element parent;
+        @Getter(AccessLevel.NONE)
+        private final String pathKey;
 
         private Member member;
+        @Getter(AccessLevel.NONE)
+        private volatile ArrIndexes arrIndexes;
 
         private ElementImpl(String id, Ast.Type type, Element previous) {
             this.id = id;
             this.type = type;
             this.parent = previous;
+            // ids are length prefixed, so keys of different paths never match
+            this.pathKey = previous.pathKey() + "/" + id.length() + ":" + id;
+        }
+
+        @Override
+        protected String pathKey() {
+            return pathKey;
         }
 
         ElementImpl(Member member, Element previous) {
@@ -247,13 +315,13 @@ public class ContractData {
 
             Ast.Type parentType = getParent().getType();
             if (parentType.isStaticArray()) {
-                float reservedSlotsCount = this.type.isStruct() ? getStructFields(this.type.asStruct()).reservedSlotsCount() : (float) Member.size(type) / Member.BYTES_IN_SLOT;
+                float reservedSlotsCount = this.type.isStruct() ? layout.getSlotsCount(this.type.asStruct()) : (float) layout.getSize(type) / Member.BYTES_IN_SLOT;
                 int startIndex = toInt(path.removeLast()) + (int) (toInt(id) * reservedSlotsCount);
                 return path.extend(startIndex);
             }
 
             if (parentType.isStructArray()) {
-                int fieldsCount = getStructFields(this.type.asStruct()).reservedSlotsCount();
+                int fieldsCount = layout.getSlotsCount(this.type.asStruct());
                 return path.extend(toInt(id) * fieldsCount);
             }
 
@@ -270,29 +338,50 @@ public class ContractData {
             return path.extend(id);
         }
 
-        private List<Integer> arrIndexes() {
+        /**
+         * Sorted indexes of the array items which are present in the storage, calculated once per element
+         * and recalculated when the dictionary element they are taken from gains children.
+         */
+        private int[] arrIndexes() {
+            int childrenCount = arrIndexesSourceChildrenCount();
+            ArrIndexes result = arrIndexes;
+            if (isNull(result) || result.childrenCount != childrenCount) {
+                result = new ArrIndexes(calculateArrIndexes(), childrenCount);
+                arrIndexes = result;
+            }
+            return result.values;
+        }
+
+        // dictionary children are never removed, so the count tells whether the indexes are up to date
+        private int arrIndexesSourceChildrenCount() {
+            if (!type.isArray()) return 0;
+            StorageDictionary.PathElement source = type.isStaticArray() ? getParent().toDictionaryPathElement() : toDictionaryPathElement();
+            return isNull(source) ? 0 : source.getChildrenCount();
+        }
+
+        private int[] calculateArrIndexes() {
             if (!type.isArray()) {
                 throw new UnsupportedOperationException("Can't get indexes for non array element.");
             }
 
-            Set<Integer> indexes = new HashSet<>();
-
             int slotsPerElement = 1;
             if (type.isStructArray()) {
                 Ast.Type.Struct structType = type.asArray().getElementType().asStruct();
-                slotsPerElement = getStructFields(structType).reservedSlotsCount();
+                slotsPerElement = layout.getSlotsCount(structType);
             }
 
+            SortedIndexes indexes = new SortedIndexes();
             if (type.isStaticArray()) {
                 int offset = member.getStorageIndex();
 
-                if (Member.BYTES_IN_SLOT / Member.size(type.asArray().getElementType()) > 1) {
-                    IntStream.range(0, type.asArray().getSize()).forEach(indexes::add);
+                if (Member.BYTES_IN_SLOT / layout.getSize(type.asArray().getElementType()) > 1) {
+                    return IntStream.range(0, type.asArray().getSize()).toArray();
                 } else {
                     int size = type.asArray().getSize() * slotsPerElement;
 
                     for (StorageDictionary.PathElement child : getParent().toDictionaryPathElement().getChildren()) {
-                        int current = toInt(child.key) - offset;
+                        if (!child.key.is(PathKey.Kind.Int)) continue;
+                        int current = child.key.intValue() - offset;
 
                         if (current >= size) break;
                         if (current < 0) continue;
@@ -304,13 +393,23 @@ public class ContractData {
                 StorageDictionary.PathElement element = toDictionaryPathElement();
                 if (element != null) {
                     for (StorageDictionary.PathElement child : element.getChildren()) {
-                        int current = toInt(child.key);
+                        // items beyond int range (sparse arrays indexed by hashes) can't be addressed by the elements
+                        if (!child.key.is(PathKey.Kind.Int)) continue;
+                        int current = child.key.intValue();
                         indexes.add(current / slotsPerElement);
                     }
                 }
             }
 
-            return indexes.stream().sorted().collect(toList());
+            return indexes.toArray();
+        }
+
+        private List<Element> toArrayItems(int[] indexes, int fromIndex, int toIndex) {
+            List<Element> result = new ArrayList<>(max(0, toIndex - fromIndex));
+            for (int i = fromIndex; i < toIndex; i++) {
+                result.add(new ElementImpl(String.valueOf(indexes[i]), type.asArray().getElementType(), this));
+            }
+            return result;
         }
 
         @Override
@@ -323,7 +422,7 @@ public class ContractData {
                     result = element.getChildrenCount();
                 }
                 if (type.isArray()) {
-                    result = arrIndexes().size();
+                    result = arrIndexes().length;
                 }
             } else if (type.isStruct()) {
                 result = getStructFields(type.asStruct()).size();
@@ -346,19 +445,63 @@ public class ContractData {
                             .map(field -> new ElementImpl(field, this))
                             .collect(toList());
                 } else if (type.isArray()) {
-                    result = arrIndexes().subList(fromIndex, toIndex).stream()
-                            .map(i -> new ElementImpl(String.valueOf(i), type.asArray().getElementType(), this))
-                            .collect(toList());
+                    result = toArrayItems(arrIndexes(), fromIndex, toIndex);
                 } else if (type.isMapping()) {
-                    result = toDictionaryPathElement().getChildren(page * size, size).stream()
-                            .map(pe -> new ElementImpl(pe.key, this))
-                            .collect(toList());
+                    result = toMapEntries(toDictionaryPathElement().getChildren(page * size, size));
                 }
             }
 
             return result;
         }
 
+        @Override
+        public List<Element> getChildren(PageCursor after, int size, boolean ignoreEmpty) {
+            List<Element> result = emptyList();
+
+            if (type.isStruct()) {
+                result = getStructFields(type.asStruct()).after(positionAfter(after), size).stream()
+                        .map(field -> new ElementImpl(field, this))
+                        .collect(toList());
+            } else if (type.isArray()) {
+                int[] indexes = arrIndexes();
+                int fromIndex = isNull(after) ? 0 : insertionPoint(indexes, positionAfter(after) + 1);
+                int toIndex = min(indexes.length, fromIndex + max(size, 0));
+                result = toArrayItems(indexes, fromIndex, toIndex);
+            } else if (type.isMapping()) {
+                StorageDictionary.PathElement element = toDictionaryPathElement();
+                if (nonNull(element)) {
+                    byte[] afterHash = isNull(after) ? null : checkCursor(after, PageCursor.Kind.Child).getChildHash();
+                    result = toMapEntries(element.getChildrenAfter(afterHash, size));
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Dictionary elements of the entries are known already, so they aren't looked up by path later.
+         */
+        private List<Element> toMapEntries(List<StorageDictionary.PathElement> children) {
+            List<Element> result = new ArrayList<>(children.size());
+            for (StorageDictionary.PathElement child : children) {
+                ElementImpl entry = new ElementImpl(child.key.toString(), this);
+                elementTranslateMap.put(entry.pathKey(), child);
+                result.add(entry);
+            }
+            return result;
+        }
+
+        @Override
+        public PageCursor toCursor() {
+            if (nonNull(member)) {
+                return PageCursor.afterIndex(member.getPosition());
+            }
+            if (getParent().getType().isMapping()) {
+                return PageCursor.afterChild(toDictionaryPathElement().storageKey);
+            }
+            return PageCursor.afterIndex(toInt(id));
+        }
+
         @Override
         public String getKey() {
             String result = id;
@@ -390,7 +533,7 @@ public class ContractData {
                     if (parentMember.getType().isStaticArray()) {
                         Ast.Type.Array array = parentMember.getType().asArray();
                         if (array.getSize() > parentMember.reservedSlotsCount()) {
-                            int typeSize = Member.size(array.getElementType());
+                            int typeSize = layout.getSize(array.getElementType());
                             int index = toInt(id);
 
                             value = extractPackedArrEl(value, index, typeSize);
@@ -402,6 +545,96 @@ public class ContractData {
             return value;
         }
 
+        /**
+         * Slot of the element calculated by Solidity storage rules, null if the element isn't addressed directly
+         * (items of packed dynamic arrays and elements nested into them).
+         */
+        public DataWord getStorageSlot() {
+            if (getParent().isRoot()) {
+                return new DataWord(member.getStorageIndex());
+            }
+
+            ElementImpl parent = (ElementImpl) getParent();
+            DataWord parentSlot = parent.getStorageSlot();
+            if (isNull(parentSlot)) {
+                return null;
+            }
+
+            Ast.Type parentType = parent.getType();
+            if (parentType.isStruct()) {
+                return StorageSlots.offset(parentSlot, member.getStorageIndex());
+            }
+            if (parentType.isMapping()) {
+                return StorageSlots.mappingValue(parentSlot, id, parentType.asMapping().getKeyType());
+            }
+
+            int index = toInt(id);
+            if (parentType.isStaticArray()) {
+                if (isPackedItem()) {
+                    return StorageSlots.offset(parentSlot, (int) (index * ((float) layout.getSize(type) / Member.BYTES_IN_SLOT)));
+                }
+                return StorageSlots.offset(parentSlot, (long) index * layout.getSlotsCount(type));
+            }
+            if (parentType.isArray() && (type.isStruct() || Member.BYTES_IN_SLOT / layout.getSize(type) == 1)) {
+                return StorageSlots.offset(StorageSlots.dataStart(parentSlot), (long) index * layout.getSlotsCount(type));
+            }
+
+            return null;
+        }
+
+        private boolean isPackedItem() {
+            Member parentMember = getParent().getMember();
+            if (isNull(parentMember) || !parentMember.getType().isStaticArray()) {
+                return false;
+            }
+            return parentMember.getType().asArray().getSize() > parentMember.reservedSlotsCount();
+        }
+
+        @Override
+        public String lookupValue(Function<DataWord, DataWord> valueExtractor) {
+            if (type.isContainer() || type.isStruct()) {
+                throw new UnsupportedOperationException("Cannot lookup value of container element.");
+            }
+
+            DataWord slot = getStorageSlot();
+            if (isNull(slot)) {
+                return getValue(valueExtractor);
+            }
+
+            if (type.isElementary() && type.asElementary().isString()) {
+                return new String(StorageSlots.bytes(slot, valueExtractor), UTF_8);
+            }
+            if (type.isElementary() && type.asElementary().is("bytes")) {
+                return Hex.toHexString(StorageSlots.bytes(slot, valueExtractor));
+            }
+
+            DataWord value = valueExtractor.apply(slot);
+            if (nonNull(member)) {
+                value = member.extractValue(value);
+            } else if (isPackedItem() && nonNull(value)) {
+                value = extractPackedArrEl(value, toInt(id), layout.getSize(type));
+            }
+
+            return Objects.toString(guessRawValueType(value, type, () -> EMPTY_BYTE_ARRAY), null);
+        }
+
+        @Override
+        public List<DataWord> getStorageKeys() {
+            StorageDictionary.PathElement pe = toDictionaryPathElement();
+            if (type.isContainer() || type.isStruct() || isNull(pe)) {
+                return emptyList();
+            }
+
+            List<DataWord> result = new ArrayList<>();
+            result.add(new DataWord(pe.storageKey));
+            // long strings and byte arrays are stored in the child slots, see getValue
+            if (type.isElementary() && (type.asElementary().isString() || type.asElementary().is("bytes"))) {
+                pe.getChildrenStream().forEach(child -> result.add(new DataWord(child.storageKey)));
+            }
+
+            return result;
+        }
+
         @Override
         public String getValue(Function<DataWord, DataWord> valueExtractor) {
             DataWord rawValue = getStorageValue(valueExtractor);
@@ -463,6 +696,66 @@ public class ContractData {
         }
     }
 
+    private static PageCursor checkCursor(PageCursor cursor, PageCursor.Kind kind) {
+        if (!cursor.is(kind)) {
+            throw new IllegalArgumentException("Page cursor doesn't match the element children.");
+        }
+        return cursor;
+    }
+
+    private static int positionAfter(PageCursor cursor) {
+        return isNull(cursor) ? -1 : checkCursor(cursor, PageCursor.Kind.Index).getIndex();
+    }
+
+    /**
+     * @return index of the first element which isn't less than the specified value
+     */
+    private static int insertionPoint(int[] sorted, int value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return (index < 0) ? -(index + 1) : index;
+    }
+
+    private static class ArrIndexes {
+        private final int[] values;
+        private final int childrenCount;
+
+        ArrIndexes(int[] values, int childrenCount) {
+            this.values = values;
+            this.childrenCount = childrenCount;
+        }
+    }
+
+    /**
+     * Collects array indexes into a primitive array. Dictionary children are mostly ordered already,
+     * so indexes are appended as they go and sorted only if an unordered one was met.
+     */
+    static class SortedIndexes {
+
+        private int[] values = new int[16];
+        private int size;
+        private boolean ordered = true;
+
+        public void add(int value) {
+            if (size > 0) {
+                int last = values[size - 1];
+                // items of struct arrays take several slots
+                if (value == last) return;
+                ordered &= value > last;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        public int[] toArray() {
+            if (ordered) {
+                return Arrays.copyOf(values, size);
+            }
+            return IntStream.of(values).limit(size).sorted().distinct().toArray();
+        }
+    }
+
     private static boolean isDataWord(String input) {
         return DATA_WORD_PATTERN.matcher(input).matches();
     }
@@ -1,8 +1,11 @@
 package com.ethercamp.contrdata.contract;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.ethereum.vm.DataWord;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,6 +21,8 @@ public class Member {
 
     private static final Pattern BYTES_TYPE_PATTERN = Pattern.compile("^bytes(\\d{0,2})$");
     private static final Pattern INT_TYPE_PATTERN = Pattern.compile("^u?int(\\d{0,3})$");
+    // elementary type sizes by type name, so that names aren't matched against the patterns every time
+    private static final Map<String, Integer> ELEMENTARY_SIZES = new ConcurrentHashMap<>();
 
 
     private static final int BITS_IN_SLOT = BITS_IN_BYTE * BYTES_IN_SLOT;
@@ -27,16 +32,24 @@ public class Member {
     private final String name;
 
     private final boolean packed;
-    private final ContractData contractData;
+    private final CompiledLayout layout;
     private final int slotFreeSpace;
+    private final int size;
 
-    public Member(Member prev, Ast.Variable variable, ContractData contractData) {
-        this.contractData = contractData;
+    // depend on the struct fields, so they are calculated on the first call (see CompiledLayout) and kept
+    @Getter(AccessLevel.NONE)
+    private int storageIndex = -1;
+    @Getter(AccessLevel.NONE)
+    private int reservedSlotsCount = -1;
+
+    public Member(Member prev, Ast.Variable variable, CompiledLayout layout) {
+        this.layout = layout;
         this.name = variable.getName();
         this.type = variable.getType();
         this.prev = prev;
 
         int typeSize = size(getType());
+        this.size = typeSize;
         if (hasPrev()) {
             this.packed = getPrev().getSlotFreeSpace() >= typeSize;
             this.slotFreeSpace = (isPacked() ? getPrev().getSlotFreeSpace() : BYTES_IN_SLOT) - typeSize;
@@ -53,15 +66,22 @@ public class Member {
     }
 
     public int reservedSlotsCount() {
+        if (reservedSlotsCount < 0) {
+            reservedSlotsCount = calculateReservedSlotsCount();
+        }
+        return reservedSlotsCount;
+    }
+
+    private int calculateReservedSlotsCount() {
         if (type.isStruct()) {
-            return contractData.getStructFields(type.asStruct()).reservedSlotsCount();
+            return layout.getStructFields(type.asStruct()).reservedSlotsCount();
         } else if (type.isStaticArray()) {
             int arrSize = type.asArray().getSize();
 
             Ast.Type nestedType = type.asArray().getElementType();
             if (nestedType.isStruct()) {
                 Ast.Type.Struct struct = type.asArray().getElementType().asStruct();
-                return arrSize * contractData.getStructFields(struct).reservedSlotsCount();
+                return arrSize * layout.getStructFields(struct).reservedSlotsCount();
             }
 
             return (int) Math.ceil((float) arrSize * size(nestedType) / BYTES_IN_SLOT);
@@ -71,11 +91,14 @@ public class Member {
     }
 
     public int getStorageIndex() {
-        int result = 0;
-        if (hasPrev()) {
-            result = getPrev().getStorageIndex() + (isPacked() ? 0 : getFirstPrevNonPacked().reservedSlotsCount());
+        if (storageIndex < 0) {
+            int result = 0;
+            if (hasPrev()) {
+                result = getPrev().getStorageIndex() + (isPacked() ? 0 : getFirstPrevNonPacked().reservedSlotsCount());
+            }
+            storageIndex = result;
         }
-        return result;
+        return storageIndex;
     }
 
     private Member getFirstPrevNonPacked() {
@@ -92,7 +115,6 @@ public class Member {
     public DataWord extractValue(DataWord slot) {
         if (slot == null) return null;
 
-        int size = size(getType());
         int from = getSlotFreeSpace();
 
         return new DataWord(subarray(slot.getData(), from, from + size));
@@ -104,15 +126,23 @@ public class Member {
         if (type.isEnum()) {
             result = 1;
         } else if (type.isElementary()) {
-            if (type.is("bool")) {
-                result = 1;
-            } else if (type.is("address")) {
-                result = 20;
-            } else if (type.is(name -> name.startsWith("bytes"))) {
-                result = size(type, BYTES_TYPE_PATTERN, BYTES_IN_SLOT);
-            } else if (type.is(name -> name.contains("int"))) {
-                result = size(type, INT_TYPE_PATTERN, BITS_IN_SLOT) / BITS_IN_BYTE;
-            }
+            result = ELEMENTARY_SIZES.computeIfAbsent(type.getName(), name -> elementarySize(type));
+        }
+
+        return result;
+    }
+
+    private static int elementarySize(Ast.Type type) {
+        int result = BYTES_IN_SLOT;
+
+        if (type.is("bool")) {
+            result = 1;
+        } else if (type.is("address")) {
+            result = 20;
+        } else if (type.is(name -> name.startsWith("bytes"))) {
+            result = size(type, BYTES_TYPE_PATTERN, BYTES_IN_SLOT);
+        } else if (type.is(name -> name.contains("int"))) {
+            result = size(type, INT_TYPE_PATTERN, BITS_IN_SLOT) / BITS_IN_BYTE;
         }
 
         return result;
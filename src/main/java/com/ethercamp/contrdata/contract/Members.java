@@ -33,6 +33,10 @@ public class Members extends ArrayList<Member> {
     }
 
     public Member findByPosition(int position) {
+        // members of a layout are kept in the order of their positions
+        if (position >= 0 && position < size() && get(position).getPosition() == position) {
+            return get(position);
+        }
         return findBy(member -> member.getPosition() == position);
     }
 
@@ -52,21 +56,31 @@ public class Members extends ArrayList<Member> {
         return new Members((fromIndex < toIndex) ? subList(fromIndex, toIndex) : emptyList());
     }
 
-    private static Members of(ContractData contractData, Ast.Entries<Ast.Variable> variables) {
+    /**
+     * @param position position of the member the page starts after, negative for the first page
+     */
+    public Members after(int position, int size) {
+        return new Members(stream()
+                .filter(member -> member.getPosition() > position)
+                .limit(max(size, 0))
+                .collect(toList()));
+    }
+
+    private static Members of(CompiledLayout layout, Ast.Entries<Ast.Variable> variables) {
         final Members members = new Members();
         variables.stream().forEach(var -> {
             Member last = members.isEmpty() ? null : members.get(members.size() - 1);
-            members.add(new Member(last, var, contractData));
+            members.add(new Member(last, var, layout));
         });
 
         return members;
     }
 
-    public static Members ofContract(ContractData contractData) {
-        return of(contractData, contractData.getContract().getVariables());
+    public static Members ofContract(CompiledLayout layout) {
+        return of(layout, layout.getContract().getVariables());
     }
 
-    public static Members ofStructure(ContractData contractData, Ast.Structure structure) {
-        return of(contractData, structure.getVariables());
+    public static Members ofStructure(CompiledLayout layout, Ast.Structure structure) {
+        return of(layout, structure.getVariables());
     }
 }
\ No newline at end of file
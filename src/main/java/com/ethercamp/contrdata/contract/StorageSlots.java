@@ -0,0 +1,135 @@
+package com.ethercamp.contrdata.contract;
+
+import com.ethercamp.contrdata.storage.dictionary.UInt256;
+import com.ethercamp.contrdata.utils.Keccak256;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.vm.DataWord;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static org.apache.commons.lang3.ArrayUtils.subarray;
+import static org.apache.commons.lang3.StringUtils.removeStart;
+
+/**
+ * Solidity storage layout rules, so that slots of typed paths are calculated without the storage dictionary.
+ */
+final class StorageSlots {
+
+    private static final int ADDRESS_HEX_LENGTH = 40;
+
+    private StorageSlots() {
+    }
+
+    public static DataWord offset(DataWord slot, long offset) {
+        return new DataWord(UInt256.of(slot.getData()).add(new UInt256(offset)).toBytes());
+    }
+
+    /**
+     * Items of dynamic arrays and data of long strings start at keccak(slot).
+     */
+    public static DataWord dataStart(DataWord slot) {
+        return new DataWord(Keccak256.hash(slot.getData()));
+    }
+
+    /**
+     * Value of the key is stored at keccak(key . slot), value type keys are padded to 32 bytes.
+     */
+    public static DataWord mappingValue(DataWord slot, String key, Ast.Type keyType) {
+        return new DataWord(Keccak256.hash(ByteUtil.merge(encodeKey(key, keyType), slot.getData())));
+    }
+
+    /**
+     * Encoding of the key is chosen by its type: byte arrays and addresses are hex (with an optional 0x prefix),
+     * integers and enums are decimal unless prefixed with 0x.
+     */
+    static byte[] encodeKey(String key, Ast.Type keyType) {
+        try {
+            if (keyType.isContract()) {
+                return address(key);
+            }
+            if (keyType.isElementary()) {
+                Ast.Type.Elementary elementary = keyType.asElementary();
+                if (elementary.isString()) {
+                    return key.getBytes(UTF_8);
+                }
+                if (elementary.is("bytes")) {
+                    return Hex.decode(removeStart(key, "0x"));
+                }
+                if (elementary.is(name -> name.startsWith("bytes"))) {
+                    return fixedBytes(key, Integer.parseInt(elementary.getName().substring("bytes".length())));
+                }
+                if (elementary.is("byte")) {
+                    return fixedBytes(key, 1);
+                }
+                if (elementary.isBool()) {
+                    return new DataWord(Boolean.parseBoolean(key) ? 1 : 0).getData();
+                }
+                if (elementary.isAddress()) {
+                    return address(key);
+                }
+            }
+
+            return number(key).toBytes();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(String.format("Key '%s' doesn't match mapping key type %s.", key, keyType.formatName()), e);
+        }
+    }
+
+    // fixed size byte arrays are left aligned
+    private static byte[] fixedBytes(String key, int size) {
+        byte[] bytes = Hex.decode(removeStart(key, "0x"));
+        if (bytes.length > size) {
+            throw new IllegalArgumentException("Key is longer than " + size + " bytes.");
+        }
+        byte[] result = new byte[32];
+        System.arraycopy(bytes, 0, result, 0, bytes.length);
+        return result;
+    }
+
+    private static byte[] address(String key) {
+        String hex = removeStart(key, "0x");
+        if (hex.length() > ADDRESS_HEX_LENGTH) {
+            throw new IllegalArgumentException("Key is longer than an address.");
+        }
+        return UInt256.parse(hex, 16).toBytes();
+    }
+
+    private static UInt256 number(String key) {
+        return key.startsWith("0x") ? UInt256.parse(key.substring(2), 16) : UInt256.parse(key, 10);
+    }
+
+    /**
+     * Content of a string or byte array: short ones are kept in the slot itself along with the doubled length
+     * in the lowest byte, long ones keep (length * 2 + 1) in the slot and the data in the consecutive slots from {@link #dataStart(DataWord)}.
+     */
+    public static byte[] bytes(DataWord slot, Function<DataWord, DataWord> valueExtractor) {
+        DataWord value = valueExtractor.apply(slot);
+        if (isNull(value)) {
+            return new byte[0];
+        }
+
+        byte[] data = value.getData();
+        int lowest = data[31] & 0xFF;
+        if ((lowest & 1) == 0) {
+            return subarray(data, 0, lowest / 2);
+        }
+
+        UInt256 encodedLength = UInt256.of(data);
+        if (encodedLength.bitLength() > Integer.SIZE) {
+            throw new IllegalStateException("Invalid length of the long string: " + encodedLength);
+        }
+        // (length * 2 + 1) >> 1, the value fits 32 bits
+        int length = encodedLength.intValue() >>> 1;
+        byte[] result = new byte[length];
+        DataWord start = dataStart(slot);
+        for (int i = 0; i * 32 < length; i++) {
+            DataWord chunk = valueExtractor.apply(offset(start, i));
+            if (isNull(chunk)) continue;
+            System.arraycopy(chunk.getData(), 0, result, i * 32, Math.min(32, length - i * 32));
+        }
+        return result;
+    }
+}
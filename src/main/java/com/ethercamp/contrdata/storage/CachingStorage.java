@@ -0,0 +1,111 @@
+package com.ethercamp.contrdata.storage;
+
+import com.ethercamp.contrdata.utils.LruCache;
+import org.ethereum.core.Repository;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.vm.DataWord;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.Objects.isNull;
+
+/**
+ * {@link Storage} caching slot values by (state root, address, key).
+ * <p>
+ * A value never changes within a state root, so entries don't need invalidation
+ * and are only evicted by the cache size bound. Empty slots are cached as well.
+ * Missed values are read from the state snapshot of the same root they're cached by,
+ * so a block imported in between can't put newer values under the older root.
+ * Key sets and sizes aren't cached.
+ */
+public class CachingStorage implements Storage {
+
+    public static final int DEFAULT_CACHE_SIZE = 100_000;
+
+    private final Supplier<byte[]> stateRoot;
+    private final Function<byte[], Storage> snapshots;
+    private final LruCache<ByteArrayWrapper, Optional<DataWord>> cache;
+
+    /**
+     * @param stateRoot current state root
+     * @param snapshots storage of the state with the given root
+     */
+    public CachingStorage(Supplier<byte[]> stateRoot, Function<byte[], Storage> snapshots, int cacheSize) {
+        this.stateRoot = stateRoot;
+        this.snapshots = snapshots;
+        this.cache = new LruCache<>(cacheSize);
+    }
+
+    public static CachingStorage fromRepo(Repository repository, int cacheSize) {
+        return new CachingStorage(repository::getRoot, root -> Storage.fromRepo(repository.getSnapshotTo(root)), cacheSize);
+    }
+
+    private static ByteArrayWrapper cacheKey(byte[] root, byte[] address, DataWord key) {
+        return new ByteArrayWrapper(ByteUtil.merge(root, address, key.getData()));
+    }
+
+    private static DataWord copy(Optional<DataWord> value) {
+        return value.map(DataWord::clone).orElse(null);
+    }
+
+    @Override
+    public int size(byte[] address) {
+        return snapshots.apply(stateRoot.get()).size(address);
+    }
+
+    @Override
+    public Set<DataWord> keys(byte[] address) {
+        return snapshots.apply(stateRoot.get()).keys(address);
+    }
+
+    @Override
+    public DataWord get(byte[] address, DataWord key) {
+        byte[] root = stateRoot.get();
+        ByteArrayWrapper cacheKey = cacheKey(root, address, key);
+
+        Optional<DataWord> value = cache.get(cacheKey);
+        if (isNull(value)) {
+            value = Optional.ofNullable(snapshots.apply(root).get(address, key));
+            cache.put(cacheKey, value);
+        }
+
+        return copy(value);
+    }
+
+    /**
+     * Missed slots are read from the underlying storage by a single batch.
+     */
+    @Override
+    public Map<DataWord, DataWord> entries(byte[] address, List<DataWord> keys) {
+        byte[] root = stateRoot.get();
+        Map<DataWord, DataWord> result = new HashMap<>();
+        List<DataWord> missed = new ArrayList<>();
+
+        for (DataWord key : keys) {
+            Optional<DataWord> value = cache.get(cacheKey(root, address, key));
+            if (isNull(value)) {
+                missed.add(key);
+            } else {
+                value.ifPresent(word -> result.put(key, word.clone()));
+            }
+        }
+
+        if (!missed.isEmpty()) {
+            Map<DataWord, DataWord> fetched = snapshots.apply(root).entries(address, missed);
+            for (DataWord key : missed) {
+                Optional<DataWord> value = Optional.ofNullable(fetched.get(key));
+                cache.put(cacheKey(root, address, key), value);
+                value.ifPresent(word -> result.put(key, word.clone()));
+            }
+        }
+
+        return result;
+    }
+
+    public LruCache<ByteArrayWrapper, Optional<DataWord>> getCache() {
+        return cache;
+    }
+}
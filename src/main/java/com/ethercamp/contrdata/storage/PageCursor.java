@@ -0,0 +1,82 @@
+package com.ethercamp.contrdata.storage;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import static org.apache.commons.lang3.ArrayUtils.subarray;
+
+/**
+ * Position of the last returned child, the next page continues right after it.
+ * <p>
+ * Dictionary children are linked in a single direction, so a page of them is resumed from the
+ * hash of the last child. Indexed children (contract and struct members, array items) are resumed
+ * from the last index. Clients get the cursor as an opaque URL-safe token, see {@link #encode()}.
+ */
+@Getter
+@EqualsAndHashCode
+public class PageCursor {
+
+    public enum Kind {
+        Child, Index
+    }
+
+    private final Kind kind;
+    private final byte[] childHash;
+    private final int index;
+
+    private PageCursor(Kind kind, byte[] childHash, int index) {
+        this.kind = kind;
+        this.childHash = childHash;
+        this.index = index;
+    }
+
+    public static PageCursor afterChild(byte[] childHash) {
+        return new PageCursor(Kind.Child, childHash, -1);
+    }
+
+    public static PageCursor afterIndex(int index) {
+        return new PageCursor(Kind.Index, null, index);
+    }
+
+    public boolean is(Kind kind) {
+        return this.kind == kind;
+    }
+
+    public String encode() {
+        byte[] position = is(Kind.Child) ? childHash : ByteBuffer.allocate(4).putInt(index).array();
+        byte[] bytes = ByteBuffer.allocate(1 + position.length)
+                .put((byte) kind.ordinal())
+                .put(position)
+                .array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @return null for an empty token, which stands for the first page
+     */
+    public static PageCursor decode(String token) {
+        if (StringUtils.isEmpty(token)) return null;
+
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(token);
+            Kind kind = Kind.values()[bytes[0]];
+            if (bytes.length != 1 + (kind == Kind.Child ? 32 : 4)) {
+                throw new IllegalArgumentException("Unexpected length " + bytes.length);
+            }
+            return (kind == Kind.Child)
+                    ? afterChild(subarray(bytes, 1, bytes.length))
+                    : afterIndex(ByteBuffer.wrap(bytes, 1, 4).getInt());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid page cursor: " + token, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
@@ -1,13 +1,14 @@
 package com.ethercamp.contrdata.storage;
 
 import org.ethereum.core.Repository;
+import org.ethereum.db.ContractDetails;
 import org.ethereum.vm.DataWord;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+import static java.util.Arrays.asList;
 import static java.util.Objects.nonNull;
 
 public interface Storage {
@@ -20,6 +21,38 @@ public interface Storage {
 
     DataWord get(byte[] address, DataWord key);
 
+    /**
+     * Bulk read into the caller's buffer: values[offset + i] is set to the value of keys[offset + i],
+     * or null if the slot is empty. Backends should read the whole batch by a single request.
+     */
+    default void get(byte[] address, DataWord[] keys, DataWord[] values, int offset, int count) {
+        Map<DataWord, DataWord> entries = entries(address, asList(keys).subList(offset, offset + count));
+        for (int i = offset; i < offset + count; i++) {
+            values[i] = entries.get(keys[i]);
+        }
+    }
+
+    /**
+     * Keys of the contract storage in ascending order.
+     * <p>
+     * The default implementation isn't streaming: the whole key set is loaded by {@link #keys(byte[])} and sorted
+     * in memory, so it's meant to be called once per index build (see {@link StorageKeyIndex}), not per page.
+     * Backends which keep the keys in order should override it to iterate them lazily.
+     */
+    default Iterator<DataWord> sortedKeys(byte[] address) {
+        DataWord[] keys = keys(address).toArray(new DataWord[0]);
+        Arrays.sort(keys);
+        return asList(keys).iterator();
+    }
+
+    /**
+     * Runs {@link #entries(byte[], List)} with the specified executor, so that a caller can issue several batches
+     * at once. Remote backends may override it to pipeline requests without blocking a thread per batch.
+     */
+    default CompletableFuture<Map<DataWord, DataWord>> entriesAsync(byte[] address, List<DataWord> keys, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> entries(address, keys), executor);
+    }
+
     static Storage fromMap(Map<DataWord, DataWord> map) {
         return new Storage() {
             @Override
@@ -48,9 +81,19 @@ public interface Storage {
             public DataWord get(byte[] address, DataWord key) {
                 return map.get(key);
             }
+
+            @Override
+            public Iterator<DataWord> sortedKeys(byte[] address) {
+                // naturally ordered map is iterated as is
+                boolean sorted = (map instanceof SortedMap) && ((SortedMap<DataWord, DataWord>) map).comparator() == null;
+                return sorted ? map.keySet().iterator() : Storage.super.sortedKeys(address);
+            }
         };
     }
 
+    /**
+     * Storage trie is keyed by the hashes of the slots, so sorted keys of the repository storage are fully materialized.
+     */
     static Storage fromRepo(Repository repository) {
         return new Storage() {
             @Override
@@ -72,6 +115,14 @@ public interface Storage {
             public DataWord get(byte[] address, DataWord key) {
                 return repository.getContractDetails(address).get(key);
             }
+
+            @Override
+            public void get(byte[] address, DataWord[] keys, DataWord[] values, int offset, int count) {
+                ContractDetails details = repository.getContractDetails(address);
+                for (int i = offset; i < offset + count; i++) {
+                    values[i] = details.get(keys[i]);
+                }
+            }
         };
     }
 }
@@ -0,0 +1,20 @@
+package com.ethercamp.contrdata.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Page of storage entries which is continued from the position of its last entry rather than from an offset.
+ */
+@Getter
+@AllArgsConstructor
+public class StorageCursorPage {
+
+    private List<StorageEntry> entries;
+    private int size;
+    private int total;
+    // null if it's the last page
+    private String nextCursor;
+}
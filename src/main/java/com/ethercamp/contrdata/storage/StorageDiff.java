@@ -0,0 +1,115 @@
+package com.ethercamp.contrdata.storage;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
+import org.ethereum.vm.DataWord;
+
+import java.util.*;
+
+import static java.util.Collections.emptyMap;
+import static org.apache.commons.lang3.ArrayUtils.nullToEmpty;
+
+/**
+ * Storage slots changed by a single transaction: old and new values by contract.
+ * Stored as a single RLP record, see {@link StorageDiffStore}.
+ */
+public class StorageDiff {
+
+    @Getter
+    @ToString
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    public static class Change {
+        private final DataWord oldValue;
+        private final DataWord newValue;
+
+        public boolean isRemoved() {
+            return newValue.isZero();
+        }
+
+        /**
+         * Later change of the same slot keeps the value it was changed from first.
+         */
+        public Change then(Change next) {
+            return new Change(oldValue, next.getNewValue());
+        }
+    }
+
+    private final Map<ByteArrayWrapper, Map<DataWord, Change>> contracts = new LinkedHashMap<>();
+
+    public void put(byte[] address, DataWord key, Change change) {
+        contracts.computeIfAbsent(new ByteArrayWrapper(address), addr -> new LinkedHashMap<>()).merge(key, change, Change::then);
+    }
+
+    public Map<DataWord, Change> get(byte[] address) {
+        return contracts.getOrDefault(new ByteArrayWrapper(address), emptyMap());
+    }
+
+    public Set<DataWord> keys(byte[] address) {
+        return get(address).keySet();
+    }
+
+    public List<byte[]> getContracts() {
+        List<byte[]> result = new ArrayList<>(contracts.size());
+        contracts.keySet().forEach(address -> result.add(address.getData()));
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return contracts.isEmpty();
+    }
+
+    /**
+     * New values of the changed slots, a drop-in replacement for the per-transaction {@link Storage}.
+     */
+    public Storage asStorage(byte[] address) {
+        Map<DataWord, DataWord> newValues = new HashMap<>();
+        get(address).forEach((key, change) -> newValues.put(key, change.getNewValue()));
+        return Storage.fromMap(newValues);
+    }
+
+    public byte[] encode() {
+        byte[][] encodedContracts = new byte[contracts.size()][];
+        int i = 0;
+        for (Map.Entry<ByteArrayWrapper, Map<DataWord, Change>> contract : contracts.entrySet()) {
+            byte[][] encodedChanges = new byte[contract.getValue().size()][];
+            int j = 0;
+            for (Map.Entry<DataWord, Change> change : contract.getValue().entrySet()) {
+                encodedChanges[j++] = RLP.encodeList(
+                        RLP.encodeElement(change.getKey().getNoLeadZeroesData()),
+                        RLP.encodeElement(change.getValue().getOldValue().getNoLeadZeroesData()),
+                        RLP.encodeElement(change.getValue().getNewValue().getNoLeadZeroesData()));
+            }
+            encodedContracts[i++] = RLP.encodeList(
+                    RLP.encodeElement(contract.getKey().getData()),
+                    RLP.encodeList(encodedChanges));
+        }
+        return RLP.encodeList(encodedContracts);
+    }
+
+    public static StorageDiff decode(byte[] bytes) {
+        StorageDiff result = new StorageDiff();
+
+        RLPList encodedContracts = (RLPList) RLP.decode2(bytes).get(0);
+        for (RLPElement encodedContract : encodedContracts) {
+            RLPList contract = (RLPList) encodedContract;
+            byte[] address = contract.get(0).getRLPData();
+            for (RLPElement encodedChange : (RLPList) contract.get(1)) {
+                RLPList change = (RLPList) encodedChange;
+                result.put(address, word(change.get(0)), new Change(word(change.get(1)), word(change.get(2))));
+            }
+        }
+
+        return result;
+    }
+
+    private static DataWord word(RLPElement element) {
+        return new DataWord(nullToEmpty(element.getRLPData()));
+    }
+}
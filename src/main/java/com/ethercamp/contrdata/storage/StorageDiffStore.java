@@ -0,0 +1,35 @@
+package com.ethercamp.contrdata.storage;
+
+import org.ethereum.datasource.KeyValueDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import static org.apache.commons.lang3.ArrayUtils.isEmpty;
+
+/**
+ * Per-transaction storage changes recorded by {@link com.ethercamp.contrdata.storage.dictionary.StorageDictionaryVmHook},
+ * keyed by transaction hash. A diff of a transaction is read at once.
+ */
+@Service
+public class StorageDiffStore {
+
+    private final KeyValueDataSource db;
+
+    @Autowired
+    public StorageDiffStore(@Qualifier("storageDiff") KeyValueDataSource dataSource) {
+        this.db = dataSource;
+    }
+
+    public void put(byte[] txHash, StorageDiff diff) {
+        db.put(txHash, diff.encode());
+    }
+
+    /**
+     * @return null if the transaction wasn't recorded (e.g. executed before the hook was installed)
+     */
+    public StorageDiff get(byte[] txHash) {
+        byte[] bytes = db.get(txHash);
+        return isEmpty(bytes) ? null : StorageDiff.decode(bytes);
+    }
+}
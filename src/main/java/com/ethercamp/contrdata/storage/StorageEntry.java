@@ -129,7 +129,7 @@ public class StorageEntry extends AbstractKeyValue implements Comparable<Storage
         Key.KeyBuilder key = Key.builder()
                 .kind(resolveKeyKind(pe))
                 .encoded(toHexString(pe.storageKey))
-                .decoded(pe.key)
+                .decoded(pe.key.toString())
                 .path(Path.of(pe.getFullPath()).toString());
 
         Value.ValueBuilder value = Value.builder()
@@ -0,0 +1,432 @@
+package com.ethercamp.contrdata.storage;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.vm.DataWord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Sorted storage keys of the recently browsed contracts, so that a page of raw storage
+ * doesn't require loading and sorting the whole key set of the contract.
+ * <p>
+ * Index of a contract is built from {@link Storage#sortedKeys(byte[])} on the first request
+ * and then kept up to date with the transaction diffs of the imported blocks, see {@link #onBlock(Block)}.
+ * Contracts up to the bound keep all their keys in memory. Larger contracts keep a sparse index:
+ * every {@link #getSparseStep()}-th key splits the keys into buckets with known counts, so a page is taken
+ * by a single pass over the unsorted keys and sorting a few buckets only.
+ * Indexes are bounded by the total number of keys kept in memory, the least recently used ones are evicted first.
+ * <p>
+ * An index is verified against the storage size on every request and rebuilt if they don't match,
+ * e.g. the storage was cleared by SELFDESTRUCT or changed by executions the index wasn't reported of.
+ */
+@Component
+public class StorageKeyIndex {
+
+    public static final int DEFAULT_MAX_KEYS = 1_000_000;
+    public static final int DEFAULT_SPARSE_STEP = 1024;
+
+    private interface Index {
+
+        void apply(DataWord key, StorageDiff.Change change);
+
+        int size();
+
+        /**
+         * @return number of keys kept in memory
+         */
+        int weight();
+
+        boolean isBalanced();
+
+        List<DataWord> keysAfter(DataWord after, int limit);
+
+        List<DataWord> keys(int offset, int limit);
+    }
+
+    private static class FullIndex implements Index {
+        private final NavigableSet<DataWord> keys = new ConcurrentSkipListSet<>();
+        private volatile int size;
+
+        void add(DataWord key) {
+            if (keys.add(key.clone())) size++;
+        }
+
+        void remove(DataWord key) {
+            if (keys.remove(key)) size--;
+        }
+
+        @Override
+        public void apply(DataWord key, StorageDiff.Change change) {
+            if (change.isRemoved()) {
+                remove(key);
+            } else {
+                add(key);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int weight() {
+            return size;
+        }
+
+        @Override
+        public boolean isBalanced() {
+            return true;
+        }
+
+        @Override
+        public List<DataWord> keysAfter(DataWord after, int limit) {
+            return take(isNull(after) ? keys : keys.tailSet(after, false), 0, limit);
+        }
+
+        @Override
+        public List<DataWord> keys(int offset, int limit) {
+            return take(keys, offset, limit);
+        }
+    }
+
+    /**
+     * Bucket i holds the keys from fences[i] (inclusive) up to fences[i + 1] (exclusive),
+     * the first one holds the keys added below the first fence too.
+     */
+    private class SparseIndex implements Index {
+        private final byte[] address;
+        private final DataWord[] fences;
+        private final int[] counts;
+        private int size;
+
+        SparseIndex(byte[] address, List<DataWord> fences, List<Integer> counts) {
+            this.address = address;
+            this.fences = fences.toArray(new DataWord[0]);
+            this.counts = counts.stream().mapToInt(Integer::intValue).toArray();
+            this.size = counts.stream().mapToInt(Integer::intValue).sum();
+        }
+
+        private int bucketOf(DataWord key) {
+            int position = Arrays.binarySearch(fences, key);
+            return position >= 0 ? position : Math.max(0, -position - 2);
+        }
+
+        // guarded by the outer index
+        @Override
+        public void apply(DataWord key, StorageDiff.Change change) {
+            int delta = (change.getNewValue().isZero() ? 0 : 1) - (change.getOldValue().isZero() ? 0 : 1);
+            counts[bucketOf(key)] += delta;
+            size += delta;
+        }
+
+        @Override
+        public int size() {
+            synchronized (StorageKeyIndex.this) {
+                return size;
+            }
+        }
+
+        @Override
+        public int weight() {
+            return fences.length;
+        }
+
+        @Override
+        public boolean isBalanced() {
+            synchronized (StorageKeyIndex.this) {
+                for (int count : counts) {
+                    if (count < 0 || count > sparseStep * 4) return false;
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public List<DataWord> keysAfter(DataWord after, int limit) {
+            int first, last;
+            synchronized (StorageKeyIndex.this) {
+                first = isNull(after) ? 0 : bucketOf(after);
+                last = first;
+                // keys of the first bucket may be all below the cursor
+                for (int covered = 0; covered < limit && last + 1 < fences.length; ) {
+                    covered += counts[++last];
+                }
+            }
+            List<DataWord> result = collect(after, false, upperFence(last));
+            return new ArrayList<>(result.subList(0, Math.min(limit, result.size())));
+        }
+
+        @Override
+        public List<DataWord> keys(int offset, int limit) {
+            int first, last, skip;
+            synchronized (StorageKeyIndex.this) {
+                if (offset >= size) return Collections.emptyList();
+
+                first = 0;
+                skip = offset;
+                while (first + 1 < fences.length && skip >= counts[first]) {
+                    skip -= counts[first++];
+                }
+                last = first;
+                for (int covered = counts[first]; covered < skip + limit && last + 1 < fences.length; ) {
+                    covered += counts[++last];
+                }
+            }
+            List<DataWord> result = collect(first == 0 ? null : fences[first], true, upperFence(last));
+            return skip >= result.size() ? Collections.emptyList() : new ArrayList<>(result.subList(skip, Math.min(skip + limit, result.size())));
+        }
+
+        private DataWord upperFence(int bucket) {
+            return bucket + 1 < fences.length ? fences[bucket + 1] : null;
+        }
+
+        // single pass over the unsorted keys, only the selected range is sorted
+        private List<DataWord> collect(DataWord lower, boolean inclusive, DataWord upper) {
+            List<DataWord> result = new ArrayList<>();
+            for (DataWord key : storage.keys(address)) {
+                if (nonNull(lower) && (inclusive ? key.compareTo(lower) < 0 : key.compareTo(lower) <= 0)) continue;
+                if (nonNull(upper) && key.compareTo(upper) >= 0) continue;
+                result.add(key);
+            }
+            Collections.sort(result);
+            return result;
+        }
+    }
+
+    private final Storage storage;
+    private final int maxKeys;
+    private final int sparseStep;
+    // access ordered, guarded by this
+    private final Map<ByteArrayWrapper, Index> indexes = new LinkedHashMap<>(16, 0.75f, true);
+    private long keysCount;
+    // diffs applied while the index of the contract is being built, replayed on the built index, guarded by this
+    private final Map<ByteArrayWrapper, List<StorageDiff>> building = new HashMap<>();
+    private byte[] lastBlockHash;
+    // diffs and deleted contracts of the executed transactions by transaction hash, waiting for their block
+    private final Map<ByteArrayWrapper, StorageDiff> staged = new ConcurrentHashMap<>();
+    private final Map<ByteArrayWrapper, Collection<byte[]>> stagedDeleted = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StorageKeyIndex(Storage storage) {
+        this(storage, DEFAULT_MAX_KEYS, DEFAULT_SPARSE_STEP);
+    }
+
+    public StorageKeyIndex(Storage storage, int maxKeys) {
+        this(storage, maxKeys, DEFAULT_SPARSE_STEP);
+    }
+
+    public StorageKeyIndex(Storage storage, int maxKeys, int sparseStep) {
+        this.storage = storage;
+        this.maxKeys = maxKeys;
+        this.sparseStep = sparseStep;
+    }
+
+    private Index getIndex(byte[] address) {
+        ByteArrayWrapper key = new ByteArrayWrapper(address);
+        int storageSize = storage.size(address);
+        List<StorageDiff> changes = null;
+        synchronized (this) {
+            Index index = indexes.get(key);
+            if (nonNull(index)) {
+                if (index.size() == storageSize && index.isBalanced()) return index;
+                remove(key);
+            }
+            // concurrent builds of the same contract serve their own requests only
+            if (!building.containsKey(key)) {
+                changes = new ArrayList<>();
+                building.put(key, changes);
+            }
+        }
+
+        try {
+            Index result = build(address, storageSize);
+            synchronized (this) {
+                // the list is dropped if the indexes were cleared during the build
+                if (nonNull(changes) && building.remove(key, changes)) {
+                    changes.forEach(diff -> diff.get(address).forEach(result::apply));
+                    indexes.put(key, result);
+                    keysCount += result.weight();
+                    evict();
+                }
+            }
+            return result;
+        } finally {
+            if (nonNull(changes)) {
+                synchronized (this) {
+                    building.remove(key, changes);
+                }
+            }
+        }
+    }
+
+    private Index build(byte[] address, int storageSize) {
+        Iterator<DataWord> sortedKeys = storage.sortedKeys(address);
+        if (storageSize <= maxKeys) {
+            FullIndex result = new FullIndex();
+            sortedKeys.forEachRemaining(result::add);
+            return result;
+        }
+
+        List<DataWord> fences = new ArrayList<>(storageSize / sparseStep + 1);
+        List<Integer> counts = new ArrayList<>(storageSize / sparseStep + 1);
+        for (int i = 0; sortedKeys.hasNext(); i++) {
+            DataWord next = sortedKeys.next();
+            if (i % sparseStep == 0) {
+                fences.add(next.clone());
+                counts.add(0);
+            }
+            counts.set(counts.size() - 1, counts.get(counts.size() - 1) + 1);
+        }
+        return new SparseIndex(address, fences, counts);
+    }
+
+    private void remove(ByteArrayWrapper key) {
+        Index removed = indexes.remove(key);
+        if (nonNull(removed)) {
+            keysCount -= removed.weight();
+        }
+    }
+
+    private void evict() {
+        Iterator<Index> eldest = indexes.values().iterator();
+        while (keysCount > maxKeys && eldest.hasNext()) {
+            keysCount -= eldest.next().weight();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @param after key the page starts after (exclusive), null for the first page
+     */
+    public List<DataWord> keysAfter(byte[] address, DataWord after, int limit) {
+        return getIndex(address).keysAfter(after, limit);
+    }
+
+    public List<DataWord> keys(byte[] address, int offset, int limit) {
+        return getIndex(address).keys(offset, limit);
+    }
+
+    private static List<DataWord> take(Collection<DataWord> keys, int offset, int limit) {
+        List<DataWord> result = new ArrayList<>(limit);
+        Iterator<DataWord> iterator = keys.iterator();
+        for (int i = 0; i < offset && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        while (result.size() < limit && iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    /**
+     * Keeps the diff of an executed transaction until its block is imported,
+     * executions which don't get into the chain (e.g. pending state) are dropped on the next block.
+     */
+    public void stage(byte[] txHash, StorageDiff diff) {
+        staged.put(new ByteArrayWrapper(txHash), diff);
+    }
+
+    /**
+     * Keeps the contracts deleted by an executed transaction until its block is imported,
+     * storage of a deleted contract is cleared without the slot changes.
+     */
+    public void stageDeleted(byte[] txHash, Collection<byte[]> addresses) {
+        if (!addresses.isEmpty()) {
+            stagedDeleted.put(new ByteArrayWrapper(txHash), addresses);
+        }
+    }
+
+    public void onBlock(Block block) {
+        List<byte[]> txHashes = block.getTransactionsList().stream().map(Transaction::getHash).collect(toList());
+        onBlock(block.getHash(), block.getParentHash(), txHashes);
+    }
+
+    /**
+     * Applies the staged diffs of the block transactions and drops the indexes of the deleted contracts.
+     * Diffs of the blocks reverted by a chain reorganization can't be undone, so all the indexes are dropped
+     * if the block doesn't follow the previous one.
+     */
+    synchronized void onBlock(byte[] hash, byte[] parentHash, Collection<byte[]> txHashes) {
+        List<StorageDiff> diffs = new ArrayList<>(txHashes.size());
+        List<byte[]> deleted = new ArrayList<>();
+        for (byte[] txHash : txHashes) {
+            ByteArrayWrapper tx = new ByteArrayWrapper(txHash);
+            StorageDiff diff = staged.remove(tx);
+            if (nonNull(diff)) diffs.add(diff);
+            Collection<byte[]> addresses = stagedDeleted.remove(tx);
+            if (nonNull(addresses)) deleted.addAll(addresses);
+        }
+        staged.clear();
+        stagedDeleted.clear();
+
+        if (nonNull(lastBlockHash) && !Arrays.equals(lastBlockHash, parentHash)) {
+            clear();
+        } else {
+            diffs.forEach(this::update);
+            deleted.forEach(this::drop);
+        }
+        lastBlockHash = hash;
+    }
+
+    /**
+     * Applies changes to the already built indexes and to the ones being built, the rest are built from the storage when requested.
+     */
+    public synchronized void update(StorageDiff diff) {
+        for (byte[] address : diff.getContracts()) {
+            ByteArrayWrapper key = new ByteArrayWrapper(address);
+            Index index = indexes.get(key);
+            if (nonNull(index)) {
+                int before = index.weight();
+                diff.get(address).forEach(index::apply);
+                keysCount += index.weight() - before;
+            }
+            List<StorageDiff> pending = building.get(key);
+            if (nonNull(pending)) {
+                pending.add(diff);
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Drops the index of the contract, e.g. when its storage is cleared.
+     */
+    public synchronized void drop(byte[] address) {
+        ByteArrayWrapper key = new ByteArrayWrapper(address);
+        remove(key);
+        building.remove(key);
+    }
+
+    public synchronized void clear() {
+        indexes.clear();
+        building.clear();
+        keysCount = 0;
+    }
+
+    public synchronized int size() {
+        return indexes.size();
+    }
+
+    public synchronized long getKeysCount() {
+        return keysCount;
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public int getSparseStep() {
+        return sparseStep;
+    }
+}
@@ -0,0 +1,52 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import lombok.Getter;
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accumulates contract changes of all the executions within a block, so that each contract key
+ * is resolved and applied to the dictionary once per block instead of once per call frame.
+ */
+class BlockChanges {
+
+    @Getter
+    private final long number;
+    private final PreimageStore preimages;
+    private final Map<ByteArrayWrapper, ContractChanges> contracts = new LinkedHashMap<>();
+    private boolean closed;
+
+    BlockChanges(long number, PreimageStore preimages) {
+        this.number = number;
+        this.preimages = preimages;
+    }
+
+    /**
+     * Merges changes of a successfully finished execution all at once.
+     *
+     * @return false if the block is already closed for committing, so changes should go to a new one
+     */
+    public synchronized boolean merge(Collection<ContractChanges> changes) {
+        if (closed) return false;
+
+        changes.forEach(change -> contracts
+                .computeIfAbsent(new ByteArrayWrapper(change.getAddress()), addr -> new ContractChanges(change.getAddress(), preimages))
+                .merge(change));
+        return true;
+    }
+
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public synchronized Collection<ContractChanges> getContracts() {
+        return contracts.values();
+    }
+
+    public synchronized boolean isEmpty() {
+        return contracts.isEmpty();
+    }
+}
@@ -0,0 +1,64 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Storage keys written to a single contract together with the SHA3 preimages
+ * hashed by its code, merged across call frames and transactions.
+ */
+@Getter
+class ContractChanges {
+
+    private final byte[] address;
+    private final StorageKeys storageKeys = new StorageKeys();
+    private final Sha3Index sha3Index;
+    // null if not detected, then paths are resolved by all the resolvers
+    private Layout.Lang lang;
+
+    ContractChanges(byte[] address, PreimageStore preimages) {
+        this.address = address;
+        this.sha3Index = new Sha3Index(preimages);
+    }
+
+    public void merge(Layout.Lang lang, StorageKeys keys, Sha3Index index) {
+        setLang(lang);
+        storageKeys.addAll(keys);
+        sha3Index.addAll(index);
+    }
+
+    public void setLang(Layout.Lang lang) {
+        if (isNull(this.lang)) {
+            this.lang = lang;
+        }
+    }
+
+    public void merge(ContractChanges other) {
+        merge(other.getLang(), other.getStorageKeys(), other.getSha3Index());
+    }
+
+    /**
+     * Every distinct key is resolved once per resolver of the contract language, no matter how many times it was written.
+     */
+    public Map<Layout.DictPathResolver, List<StorageDictionary.PathElement[]>> resolvePaths(List<Layout.DictPathResolver> allResolvers) {
+        List<Layout.DictPathResolver> resolvers = allResolvers.stream()
+                .filter(resolver -> isNull(lang) || resolver.getLang() == lang)
+                .collect(toList());
+        Map<Layout.DictPathResolver, List<StorageDictionary.PathElement[]>> result = new HashMap<>();
+        resolvers.forEach(resolver -> result.put(resolver, new ArrayList<>(storageKeys.size())));
+
+        storageKeys.forEach((key, change) -> resolvers.forEach(resolver -> {
+            StorageDictionary.PathElement[] path = resolver.resolvePath(key.getData(), sha3Index);
+            result.get(resolver).add(path);
+        }));
+
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import com.ethercamp.contrdata.utils.LruCache;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static java.util.Objects.isNull;
+import static org.apache.commons.lang3.ArrayUtils.isEmpty;
+
+/**
+ * Source language of the contracts, detected from the contract code by {@link Layout.Lang#detect(byte[])}.
+ * <p>
+ * The language is persisted by the hash of the contract runtime code, so it's detected once per distinct code
+ * no matter how many contracts are deployed from it. Recently used ones are kept in a bounded LRU cache in front of the DB.
+ * Undetected languages are cached only, so that contracts get another chance after detection rules improve.
+ */
+public class ContractLangStore {
+
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    private final KeyValueDataSource db;
+    private final Object dbLock;
+    private final LruCache<ByteArrayWrapper, Optional<Layout.Lang>> cache;
+
+    /**
+     * @param dbLock guards the data source shared with other DB users
+     */
+    public ContractLangStore(KeyValueDataSource db, Object dbLock, int cacheSize) {
+        this.db = db;
+        this.dbLock = dbLock;
+        this.cache = new LruCache<>(cacheSize);
+    }
+
+    /**
+     * @param codeHash hash of the contract runtime code
+     * @param code     runtime code, loaded only if the language of the hash isn't known yet
+     * @return contract language or null if it can't be detected
+     */
+    public Layout.Lang get(byte[] codeHash, Supplier<byte[]> code) {
+        ByteArrayWrapper key = new ByteArrayWrapper(codeHash);
+        Optional<Layout.Lang> lang = cache.get(key);
+        if (isNull(lang)) {
+            lang = Optional.ofNullable(load(codeHash));
+            if (!lang.isPresent()) {
+                lang = Optional.ofNullable(Layout.Lang.detect(code.get()));
+                lang.ifPresent(detected -> store(codeHash, detected));
+            }
+            cache.put(key, lang);
+        }
+
+        return lang.orElse(null);
+    }
+
+    private Layout.Lang load(byte[] codeHash) {
+        byte[] bytes;
+        synchronized (dbLock) {
+            bytes = db.get(codeHash);
+        }
+        return isEmpty(bytes) ? null : Layout.Lang.values()[bytes[0]];
+    }
+
+    private void store(byte[] codeHash, Layout.Lang lang) {
+        synchronized (dbLock) {
+            db.put(codeHash, new byte[]{(byte) lang.ordinal()});
+        }
+    }
+
+    public LruCache<ByteArrayWrapper, Optional<Layout.Lang>> getCache() {
+        return cache;
+    }
+}
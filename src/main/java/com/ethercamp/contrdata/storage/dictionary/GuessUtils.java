@@ -21,7 +21,7 @@ public class GuessUtils {
             if (bi.bitLength() < 32) {
                 el = StorageDictionary.PathElement.createMapKey(bi.intValue(), storageKey);
             } else {
-                el = StorageDictionary.PathElement.createMapKey("0x" + bi.toString(16), storageKey);
+                el = StorageDictionary.PathElement.createMapKey(PathKey.of(UInt256.of(key)), storageKey);
             }
         }
 
@@ -1,10 +1,14 @@
 package com.ethercamp.contrdata.storage.dictionary;
 
+import com.ethercamp.contrdata.utils.Keccak256;
+import com.ethercamp.contrdata.utils.LruCache;
 import lombok.Getter;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.FastByteComparisons;
 import org.ethereum.util.Utils;
+import org.spongycastle.util.encoders.Hex;
 import org.springframework.stereotype.Component;
 
-import java.math.BigInteger;
 import java.util.Arrays;
 
 import static com.ethercamp.contrdata.storage.dictionary.GuessUtils.guessPathElement;
@@ -12,7 +16,7 @@ import static com.ethercamp.contrdata.storage.dictionary.StorageDictionary.PathE
 import static com.ethercamp.contrdata.storage.dictionary.StorageDictionary.emptyPathElements;
 import static com.ethercamp.contrdata.storage.dictionary.StorageDictionary.pathElements;
 import static java.util.Objects.isNull;
-import static org.ethereum.crypto.HashUtil.sha3;
+import static java.util.Objects.nonNull;
 
 public interface Layout {
 
@@ -24,7 +28,27 @@ public interface Layout {
         private final byte[] fingerprint = fingerprint();
 
         private byte[] fingerprint() {
-            return sha3(name().getBytes());
+            return Keccak256.hash(name().getBytes());
+        }
+
+        // Solidity code starts with the free memory pointer initialization: mstore(0x40, 0x60) or mstore(0x40, 0x80)
+        private static final byte[][] SOLIDITY_PREFIXES = {
+                Hex.decode("6060604052"),
+                Hex.decode("6080604052")
+        };
+
+        /**
+         * @return language the code was compiled from, null if it can't be recognized
+         */
+        public static Lang detect(byte[] code) {
+            if (isNull(code)) return null;
+            for (byte[] prefix : SOLIDITY_PREFIXES) {
+                if (code.length >= prefix.length
+                        && FastByteComparisons.compareTo(code, 0, prefix.length, prefix, 0, prefix.length) == 0) {
+                    return solidity;
+                }
+            }
+            return null;
         }
     }
 
@@ -53,7 +77,7 @@ public interface Layout {
                     int pathLength = entry.getInput().length / 32;
                     StorageDictionary.PathElement[] ret = new StorageDictionary.PathElement[pathLength];
                     for (int i = 0; i < ret.length; i++) {
-                        byte[] storageKey = sha3(entry.getInput(), 0, (i + 1) * 32);
+                        byte[] storageKey = Keccak256.hash(entry.getInput(), 0, (i + 1) * 32);
                         ret[i] = guessPathElement(Arrays.copyOfRange(entry.getInput(), i * 32, (i + 1) * 32), storageKey);
                         ret[i].type = StorageDictionary.PathElement.Type.MapKey;
                     }
@@ -71,6 +95,15 @@ public interface Layout {
     @Component
     class SolidityDictPathResolver implements DictPathResolver {
 
+        public static final int DEFAULT_CACHE_SIZE = 100_000;
+
+        /**
+         * Paths of the resolved hash keys shared across frames and transactions,
+         * so resolving a[x][y][z] costs only the suffix when a[x][y] is already known.
+         */
+        @Getter
+        private final LruCache<ByteArrayWrapper, StorageDictionary.PathElement[]> resolved = new LruCache<>(DEFAULT_CACHE_SIZE);
+
         @Override
         public Lang getLang() {
             return Lang.solidity;
@@ -78,6 +111,12 @@ public interface Layout {
 
         @Override
         public StorageDictionary.PathElement[] resolvePath(byte[] key, Sha3Index index) {
+            ByteArrayWrapper cacheKey = new ByteArrayWrapper(key);
+            StorageDictionary.PathElement[] cached = resolved.get(cacheKey);
+            if (nonNull(cached)) {
+                return copyLight(cached);
+            }
+
             Sha3Index.Entry sha3 = index.get(key);
 
             if (isNull(sha3)) {
@@ -94,14 +133,35 @@ public interface Layout {
                 StorageDictionary.PathElement containerKey = guessPathElement(subKey, toVirtualStorageKey(sha3.getOutput()));
                 // hashKey = key & subkey.length == 0 for dyn arrays
                 StorageDictionary.PathElement.Type type = subKey.length == 0 ? StorageDictionary.PathElement.Type.ArrayIndex : StorageDictionary.PathElement.Type.Offset;
-                int offset = new BigInteger(key).subtract(new BigInteger(sha3.getOutput())).intValue();
-                StorageDictionary.PathElement containerValKey = new StorageDictionary.PathElement(type, offset, key);
+                StorageDictionary.PathElement containerValKey = new StorageDictionary.PathElement(type, offset(key, sha3.getOutput()), key);
 
-                return Utils.mergeArrays(
+                StorageDictionary.PathElement[] result = Utils.mergeArrays(
                         resolvePath(nxtKey, index),
                         pathElements(isNull(containerKey) ? emptyPathElements() : pathElements(containerKey)),
                         pathElements(containerValKey));
+
+                // path starting with unresolved hash key may be resolved later, when its preimage appears
+                if (Sha3Index.isSmallNumber(result[0].storageKey)) {
+                    resolved.put(cacheKey, copyLight(result));
+                }
+                return result;
+            }
+        }
+
+        // offsets beyond int range appear in sparse arrays indexed by hashes
+        private static PathKey offset(byte[] key, byte[] base) {
+            return UInt256.differenceFits(key, base, Integer.SIZE - 1)
+                    ? PathKey.of(UInt256.intDifference(key, base))
+                    : PathKey.of(UInt256.of(key).subtract(UInt256.of(base)));
+        }
+
+        // dictionary links the added elements, so cached ones are never given out
+        private static StorageDictionary.PathElement[] copyLight(StorageDictionary.PathElement[] path) {
+            StorageDictionary.PathElement[] result = new StorageDictionary.PathElement[path.length];
+            for (int i = 0; i < path.length; i++) {
+                result[i] = path[i].copyLight();
             }
+            return result;
         }
     }
 }
@@ -0,0 +1,175 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.Objects;
+
+import static org.ethereum.util.ByteUtil.byteArrayToInt;
+import static org.ethereum.util.ByteUtil.intToBytesNoLeadZeroes;
+import static org.ethereum.util.ByteUtil.stripLeadingZeroes;
+
+/**
+ * Typed key of the {@link StorageDictionary.PathElement}: storage indexes, offsets and array indexes are small ints,
+ * mapping keys are either ints, 256-bit numbers or strings.
+ * Keys are compared and looked up in the typed form, the string is rendered only for the API (and cached).
+ */
+public final class PathKey implements Comparable<PathKey> {
+
+    public enum Kind {
+        Int,
+        Number,
+        Text
+    }
+
+    public static final PathKey ZERO = of(0);
+
+    private final Kind kind;
+    private final int intValue;
+    private final UInt256 number;
+    private final String text;
+    private String string;
+
+    private PathKey(Kind kind, int intValue, UInt256 number, String text) {
+        this.kind = kind;
+        this.intValue = intValue;
+        this.number = number;
+        this.text = text;
+    }
+
+    public static PathKey of(int value) {
+        return new PathKey(Kind.Int, value, null, null);
+    }
+
+    public static PathKey of(UInt256 value) {
+        return new PathKey(Kind.Number, 0, new UInt256().set(value), null);
+    }
+
+    public static PathKey text(String value) {
+        return new PathKey(Kind.Text, 0, null, value);
+    }
+
+    /**
+     * Restores typed key from its string form, used for the index keys of the dictionaries stored before the keys were typed.
+     */
+    public static PathKey parse(String value) {
+        if (isInt(value)) {
+            try {
+                return of(Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                // out of int range, keep as text
+            }
+        } else if (value.startsWith("0x") && value.length() > 2 && value.length() <= 66 && UInt256.isHex(value.substring(2))) {
+            return of(UInt256.of(Hex.decode((value.length() % 2 == 0 ? "" : "0") + value.substring(2))));
+        }
+        return text(value);
+    }
+
+    // canonical decimal form only, so that rendering gives back the same string
+    private static boolean isInt(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        if (value.length() == start || value.length() - start > 10) return false;
+        if (value.charAt(start) == '0' && value.length() > start + 1) return false;
+        for (int i = start; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') return false;
+        }
+        return !"-0".equals(value);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean is(Kind kind) {
+        return this.kind == kind;
+    }
+
+    /**
+     * @return int value of the key, 0 if the key isn't a small number (same as {@link NumberUtils#toInt(String)})
+     */
+    public int intValue() {
+        switch (kind) {
+            case Int:
+                return intValue;
+            case Text:
+                return NumberUtils.toInt(text);
+            default:
+                return 0;
+        }
+    }
+
+    byte[] encode() {
+        switch (kind) {
+            case Int:
+                return intToBytesNoLeadZeroes(intValue);
+            case Number:
+                return stripLeadingZeroes(number.toBytes());
+            default:
+                return text.getBytes();
+        }
+    }
+
+    static PathKey decode(Kind kind, byte[] bytes) {
+        switch (kind) {
+            case Int:
+                return of(byteArrayToInt(bytes));
+            case Number:
+                return of(UInt256.of(bytes == null ? new byte[0] : bytes));
+            default:
+                return text(bytes == null ? "" : new String(bytes));
+        }
+    }
+
+    @Override
+    public int compareTo(PathKey o) {
+        if (kind != o.kind) return kind.compareTo(o.kind);
+        switch (kind) {
+            case Int:
+                return Integer.compare(intValue, o.intValue);
+            case Number:
+                return number.compareTo(o.number);
+            default:
+                return text.compareTo(o.text);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof PathKey)) return false;
+        PathKey other = (PathKey) obj;
+        return kind == other.kind && intValue == other.intValue
+                && Objects.equals(number, other.number) && Objects.equals(text, other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        switch (kind) {
+            case Int:
+                return intValue;
+            case Number:
+                return number.hashCode();
+            default:
+                return text.hashCode();
+        }
+    }
+
+    @JsonValue
+    @Override
+    public String toString() {
+        if (string == null) {
+            switch (kind) {
+                case Int:
+                    string = String.valueOf(intValue);
+                    break;
+                case Number:
+                    string = "0x" + number;
+                    break;
+                default:
+                    string = text;
+            }
+        }
+        return string;
+    }
+}
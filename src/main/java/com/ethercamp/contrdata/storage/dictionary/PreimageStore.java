@@ -0,0 +1,141 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import com.ethercamp.contrdata.utils.LruCache;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.isNull;
+import static org.apache.commons.lang3.ArrayUtils.isEmpty;
+
+/**
+ * Persistent SHA3 preimages of the hashes which resolved written storage keys.
+ * <p>
+ * {@link Sha3Index} lives for a single block only, so a storage key based on a hash calculated
+ * in an earlier block can't be resolved by it. Preimages the keys were resolved with are kept here
+ * and consulted after the index misses.
+ * <p>
+ * Keys of struct fields and array items are the hash plus an offset, so preimages are grouped into buckets
+ * by the hash without its lowest {@link Sha3Index#MAX_OFFSET_BITS} bits (rounded up to whole bytes). A key is resolved
+ * by the nearest hash at or below it found in its own bucket or in the previous one (the offset may carry over
+ * the bucket boundary), within the same offset bound as in {@link Sha3Index}, so a key resolves the same way
+ * whether its preimage was hashed in the current transaction or taken from the store.
+ * Recently used buckets, empty ones included, are kept in a bounded LRU cache in front of the DB.
+ */
+public class PreimageStore {
+
+    public static final int DEFAULT_CACHE_SIZE = 100_000;
+
+    private static final int BUCKET_LENGTH = UInt256.BYTES - (Sha3Index.MAX_OFFSET_BITS + Byte.SIZE - 1) / Byte.SIZE;
+
+    private final KeyValueDataSource db;
+    private final Object dbLock;
+    private final LruCache<ByteArrayWrapper, List<Sha3Index.Entry>> cache;
+
+    /**
+     * @param dbLock guards the data source shared with other DB users
+     */
+    public PreimageStore(KeyValueDataSource db, Object dbLock, int cacheSize) {
+        this.db = db;
+        this.dbLock = dbLock;
+        this.cache = new LruCache<>(cacheSize);
+    }
+
+    /**
+     * @return entry with the nearest output at or below the encoded key
+     */
+    public Sha3Index.Entry get(byte[] encoded) {
+        byte[] bucket = Arrays.copyOf(encoded, BUCKET_LENGTH);
+        Sha3Index.Entry result = floor(load(bucket), encoded);
+        if (isNull(result)) {
+            result = floor(load(previous(bucket)), encoded);
+        }
+        return result;
+    }
+
+    private static Sha3Index.Entry floor(List<Sha3Index.Entry> entries, byte[] encoded) {
+        Sha3Index.Entry result = null;
+        for (Sha3Index.Entry entry : entries) {
+            if (UInt256.compare(entry.getOutput(), encoded) <= 0
+                    && UInt256.differenceFits(encoded, entry.getOutput(), Sha3Index.MAX_OFFSET_BITS)
+                    && (isNull(result) || UInt256.compare(entry.getOutput(), result.getOutput()) > 0)) {
+                result = entry;
+            }
+        }
+        return result;
+    }
+
+    public void put(byte[] output, byte[] input) {
+        byte[] bucket = Arrays.copyOf(output, BUCKET_LENGTH);
+        synchronized (dbLock) {
+            List<Sha3Index.Entry> entries = load(bucket);
+            for (Sha3Index.Entry entry : entries) {
+                if (Arrays.equals(output, entry.getOutput())) return;
+            }
+
+            List<Sha3Index.Entry> updated = new ArrayList<>(entries);
+            updated.add(new Sha3Index.Entry(output, input));
+            db.put(bucket, encode(updated));
+            cache.put(new ByteArrayWrapper(bucket), unmodifiableList(updated));
+        }
+    }
+
+    public void putAll(Collection<Sha3Index.Entry> entries) {
+        entries.forEach(entry -> put(entry.getOutput(), entry.getInput()));
+    }
+
+    private List<Sha3Index.Entry> load(byte[] bucket) {
+        ByteArrayWrapper key = new ByteArrayWrapper(bucket);
+        List<Sha3Index.Entry> result = cache.get(key);
+        if (isNull(result)) {
+            // loaded under the lock, so a concurrent put can't be overwritten with the stale bucket
+            synchronized (dbLock) {
+                result = cache.get(key);
+                if (isNull(result)) {
+                    byte[] encoded = db.get(bucket);
+                    result = isEmpty(encoded) ? emptyList() : decode(encoded);
+                    cache.put(key, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static byte[] previous(byte[] bucket) {
+        byte[] result = bucket.clone();
+        for (int i = result.length - 1; i >= 0; i--) {
+            if (result[i]-- != 0) break;
+        }
+        return result;
+    }
+
+    private static byte[] encode(List<Sha3Index.Entry> entries) {
+        byte[][] elements = new byte[entries.size() * 2][];
+        for (int i = 0; i < entries.size(); i++) {
+            elements[i * 2] = RLP.encodeElement(entries.get(i).getOutput());
+            elements[i * 2 + 1] = RLP.encodeElement(entries.get(i).getInput());
+        }
+        return RLP.encodeList(elements);
+    }
+
+    private static List<Sha3Index.Entry> decode(byte[] bytes) {
+        RLPList list = (RLPList) RLP.decode2(bytes).get(0);
+        List<Sha3Index.Entry> result = new ArrayList<>(list.size() / 2);
+        for (int i = 0; i + 1 < list.size(); i += 2) {
+            result.add(new Sha3Index.Entry(list.get(i).getRLPData(), list.get(i + 1).getRLPData()));
+        }
+        return unmodifiableList(result);
+    }
+
+    public LruCache<ByteArrayWrapper, List<Sha3Index.Entry>> getCache() {
+        return cache;
+    }
+}
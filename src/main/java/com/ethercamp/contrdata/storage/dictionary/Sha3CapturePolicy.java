@@ -0,0 +1,28 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which SHA3 preimages are worth keeping in the {@link Sha3Index}.
+ * <p>
+ * Storage keys are hashed from a 32 bytes slot, optionally prefixed with a mapping key,
+ * so shorter inputs never produce a storage key, while long ones are most likely
+ * abi encoded blobs hashed for signatures and can be skipped without copying them from memory.
+ */
+@Getter
+@Setter
+@Component
+public class Sha3CapturePolicy {
+
+    public static final int MIN_INPUT_LENGTH = 32;
+    // mapping key up to 128 bytes (long string keys) + 32 bytes slot
+    public static final int DEFAULT_MAX_INPUT_LENGTH = 160;
+
+    private int maxInputLength = DEFAULT_MAX_INPUT_LENGTH;
+
+    public boolean accept(int inputLength) {
+        return inputLength >= MIN_INPUT_LENGTH && inputLength <= maxInputLength;
+    }
+}
@@ -1,23 +1,33 @@
 package com.ethercamp.contrdata.storage.dictionary;
 
-import lombok.AccessLevel;
+import com.ethercamp.contrdata.utils.Keccak256;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.util.FastByteComparisons;
-import org.ethereum.vm.DataWord;
 import org.spongycastle.util.encoders.Hex;
 
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 
 import static java.util.Objects.isNull;
-import static org.ethereum.crypto.HashUtil.sha3;
-
+import static java.util.Objects.nonNull;
+
+/**
+ * Index of SHA3 preimages hashed during the contract execution.
+ * Entries are looked up both by input (to skip already known preimages, backed by hash map, O(1))
+ * and by output (to resolve storage keys). Storage key of an array element or a struct field is the hash
+ * plus the offset, so outputs are kept sorted and a key is resolved by the nearest hash at or below it,
+ * as long as the offset is less than 2^{@link #MAX_OFFSET_BITS} (O(log n)).
+ * Hashes of the top-level storage indexes are shared by all the indexes, see {@link SlotHashTable}.
+ * Entries which resolved keys are tracked, so only those are persisted into {@link PreimageStore}.
+ */
 public class Sha3Index {
 
     @RequiredArgsConstructor
@@ -26,11 +36,12 @@ public class Sha3Index {
         private final byte[] output;
         @Getter
         private final byte[] input;
+        // 0 means not calculated yet, same as for String
         private int hashCode;
 
         @Override
         public int hashCode() {
-            if (isNull(hashCode())) {
+            if (hashCode == 0) {
                 this.hashCode = Arrays.hashCode(input);
             }
             return this.hashCode;
@@ -59,93 +70,115 @@ public class Sha3Index {
         }
     }
 
-    private final static Sha3Index calculated = new Sha3Index() {{
-        // Let's take 1000 as the max storage index
-        IntStream.range(0, 1000).forEach(this::add);
-    }};
+    public static final int DEFAULT_MAX_OFFSET_BITS = 128;
+    /**
+     * Bound of the offset from the hashed base, configured by 'storageDict.maxOffsetBits' system property.
+     * Hashes are spread uniformly, so a random key is within the bound of some output with negligible probability.
+     */
+    public static final int MAX_OFFSET_BITS = Integer.getInteger("storageDict.maxOffsetBits", DEFAULT_MAX_OFFSET_BITS);
+
+    private static final SlotHashTable slotHashes = SlotHashTable.getDefault();
 
-    private final Map<Sha3Output, Entry> idx = new HashMap<>();
+    private final Map<ByteArrayWrapper, Entry> inputs = new HashMap<>();
+    private final NavigableMap<byte[], Entry> outputs = new TreeMap<>(UInt256::compare);
+    private final Set<Entry> resolved = new LinkedHashSet<>();
+    private final PreimageStore preimages;
 
-    protected void add(int i) {
-        byte[] input = new DataWord(i).getData();
-        Sha3Output output = Sha3Output.calc(input);
-        idx.put(output, new Entry(output.getData(), input));
+    public Sha3Index() {
+        this(null);
     }
 
-    public boolean contains(byte[] decoded) {
-        ByteArrayWrapper input = new ByteArrayWrapper(decoded);
-        return Stream.concat(calculated.idx.values().stream(), idx.values().stream())
-                .filter(entry -> entry.equals(input))
-                .findFirst()
-                .isPresent();
+    /**
+     * @param preimages consulted for keys hashed outside of this index, e.g. in previous transactions
+     */
+    public Sha3Index(PreimageStore preimages) {
+        this.preimages = preimages;
+    }
 
+    private void put(Entry entry) {
+        inputs.put(new ByteArrayWrapper(entry.getInput()), entry);
+        outputs.put(entry.getOutput(), entry);
+    }
+
+    public boolean contains(byte[] decoded) {
+        return slotHashes.containsInput(decoded) || inputs.containsKey(new ByteArrayWrapper(decoded));
     }
 
     public void add(byte[] input) {
         if (contains(input)) return;
 
-        Sha3Output output = Sha3Output.calc(input);
-        idx.put(output, new Entry(output.getData(), input));
+        add(input, Keccak256.hash(input));
     }
 
-    public Entry get(byte[] encoded) {
-        Sha3Output output = Sha3Output.wrap(encoded);
-        Entry entry = calculated.idx.get(output);
-        if (isNull(entry)) {
-            entry = idx.get(output);
-        }
+    /**
+     * Adds already calculated hash, e.g. taken by the VM hook from the stack after SHA3 execution.
+     */
+    public void add(byte[] input, byte[] output) {
+        if (contains(input)) return;
 
-        return entry;
+        put(new Entry(output, input));
     }
 
-    public void clear() {
-        idx.clear();
+    public void addAll(Sha3Index other) {
+        other.entries().forEach(entry -> add(entry.getInput(), entry.getOutput()));
     }
 
-    public Collection<Entry> entries() {
-        return idx.values();
-    }
+    /**
+     * @return entry with the nearest output at or below the encoded key
+     */
+    public Entry get(byte[] encoded) {
+        Entry own = floor(encoded);
+        Entry entry = nearest(slotHashes.floor(encoded, MAX_OFFSET_BITS), own);
+        if (nonNull(own) && entry == own) {
+            resolved.add(own);
+        }
+        if (isNull(entry) && nonNull(preimages) && !isSmallNumber(encoded)) {
+            entry = preimages.get(encoded);
+        }
 
-    public int size() {
-        return idx.size();
+        return entry;
     }
 
-    @RequiredArgsConstructor(access = AccessLevel.PRIVATE, staticName = "wrap")
-    private static class Sha3Output {
-
-        private static final int COMPARISON_DATA_LEN = 20;
+    private Entry floor(byte[] encoded) {
+        Map.Entry<byte[], Entry> floor = outputs.floorEntry(encoded);
+        if (isNull(floor) || !UInt256.differenceFits(encoded, floor.getKey(), MAX_OFFSET_BITS)) {
+            return null;
+        }
+        return floor.getValue();
+    }
 
-        @Getter
-        private final byte[] data;
-        private int hashCode;
+    private static Entry nearest(Entry e1, Entry e2) {
+        if (isNull(e1)) return e2;
+        if (isNull(e2)) return e1;
+        return UInt256.compare(e1.getOutput(), e2.getOutput()) >= 0 ? e1 : e2;
+    }
 
-        @Override
-        public int hashCode() {
-            if (isNull(hashCode)) {
-                hashCode = Arrays.hashCode(Arrays.copyOf(data, COMPARISON_DATA_LEN));
-            }
-            return hashCode;
+    // hash output with 16 leading zero bytes is practically impossible, no need to hit the store
+    static boolean isSmallNumber(byte[] encoded) {
+        for (int i = 0; i < 16; i++) {
+            if (encoded[i] != 0) return false;
         }
+        return true;
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof Sha3Output) {
-                byte[] otherData = ((Sha3Output) obj).getData();
-                return FastByteComparisons.compareTo(
-                        data, 0, COMPARISON_DATA_LEN,
-                        otherData, 0, COMPARISON_DATA_LEN) == 0;
-            }
-            return false;
-        }
+    public void clear() {
+        inputs.clear();
+        outputs.clear();
+        resolved.clear();
+    }
 
-        @Override
-        public String toString() {
-            return Hex.toHexString(data);
-        }
+    public Collection<Entry> entries() {
+        return outputs.values();
+    }
 
+    /**
+     * Own entries returned by {@link #get(byte[])}, slot hashes and the entries taken from the store aren't included.
+     */
+    public Collection<Entry> resolvedEntries() {
+        return resolved;
+    }
 
-        static Sha3Output calc(byte[] input) {
-            return wrap(sha3(input));
-        }
+    public int size() {
+        return outputs.size();
     }
 }
@@ -0,0 +1,218 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import com.ethercamp.contrdata.utils.Keccak256;
+import lombok.extern.slf4j.Slf4j;
+import org.ethereum.vm.DataWord;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static java.lang.Integer.parseInt;
+import static java.util.Objects.isNull;
+
+/**
+ * Precomputed hashes of the top-level storage indexes: sha3(0), sha3(1) ... sha3(size - 1).
+ * Those are the bases of dynamic arrays (and of serpent mappings) declared as contract fields.
+ * <p>
+ * The table is generated at build time (see 'generateSlotHashTable' gradle task, its size
+ * is configured by '-PslotHashTableSize') into a compact binary resource, which is memory-mapped on first use:
+ * <pre>
+ *     int magic, int size, size * (32 bytes hash, int storage index) sorted by hash
+ * </pre>
+ * When the resource is missing (e.g. running from IDE without build) the table of {@link #DEFAULT_SIZE}
+ * entries is calculated in memory.
+ */
+@Slf4j
+public class SlotHashTable {
+
+    public static final String RESOURCE = "contrdata/slot-hash-table.bin";
+    public static final int DEFAULT_SIZE = 1000;
+
+    private static final int MAGIC = 0x534c4854;
+    private static final int HEADER_LEN = 8;
+    private static final int HASH_LEN = 32;
+    private static final int RECORD_LEN = HASH_LEN + 4;
+
+    private static class DefaultHolder {
+        private static final SlotHashTable INSTANCE = loadDefault();
+    }
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    private SlotHashTable(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a slot hash table.");
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(4);
+    }
+
+    public static SlotHashTable getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if input is one of the hashed storage indexes
+     */
+    public boolean containsInput(byte[] input) {
+        if (input.length != DataWord.DATA_SIZE) return false;
+        for (int i = 0; i < DataWord.DATA_SIZE - 4; i++) {
+            if (input[i] != 0) return false;
+        }
+        long index = ((input[28] & 0xFFL) << 24) | ((input[29] & 0xFF) << 16) | ((input[30] & 0xFF) << 8) | (input[31] & 0xFF);
+        return index < size;
+    }
+
+    /**
+     * Looks for the storage index hash equal to the output.
+     */
+    public Sha3Index.Entry get(byte[] output) {
+        return floor(output, 0);
+    }
+
+    /**
+     * Looks for the greatest storage index hash at or below the key, i.e. the base of the array the key belongs to.
+     *
+     * @param maxOffsetBits the hash is accepted if key - hash is less than 2^maxOffsetBits
+     */
+    public Sha3Index.Entry floor(byte[] key, int maxOffsetBits) {
+        int low = 0;
+        int high = size - 1;
+        int floor = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                floor = mid;
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entry(mid);
+            }
+        }
+        if (floor < 0) return null;
+
+        Sha3Index.Entry entry = entry(floor);
+        return UInt256.differenceFits(key, entry.getOutput(), maxOffsetBits) ? entry : null;
+    }
+
+    private int compare(int record, byte[] output) {
+        int offset = HEADER_LEN + record * RECORD_LEN;
+        for (int i = 0; i < HASH_LEN; i++) {
+            int cmp = (buffer.get(offset + i) & 0xFF) - (output[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    private Sha3Index.Entry entry(int record) {
+        int offset = HEADER_LEN + record * RECORD_LEN;
+        byte[] hash = new byte[HASH_LEN];
+        for (int i = 0; i < HASH_LEN; i++) {
+            hash[i] = buffer.get(offset + i);
+        }
+        int index = buffer.getInt(offset + HASH_LEN);
+
+        return new Sha3Index.Entry(hash, new DataWord(index).getData());
+    }
+
+    public void write(OutputStream out) throws IOException {
+        byte[] bytes = new byte[HEADER_LEN + size * RECORD_LEN];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(i);
+        }
+        out.write(bytes);
+    }
+
+    public static SlotHashTable calculate(int size) {
+        byte[][] records = new byte[size][];
+        byte[] storageIndex = new byte[DataWord.DATA_SIZE];
+        for (int i = 0; i < size; i++) {
+            ByteBuffer.wrap(storageIndex).putInt(DataWord.DATA_SIZE - 4, i);
+            records[i] = new byte[RECORD_LEN];
+            Keccak256.hash(storageIndex, 0, storageIndex.length, records[i], 0);
+            ByteBuffer.wrap(records[i]).putInt(HASH_LEN, i);
+        }
+        Arrays.sort(records, SlotHashTable::compareRecords);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LEN + size * RECORD_LEN)
+                .putInt(MAGIC)
+                .putInt(size);
+        for (byte[] record : records) {
+            buffer.put(record);
+        }
+
+        return wrap(buffer);
+    }
+
+    private static int compareRecords(byte[] r1, byte[] r2) {
+        for (int i = 0; i < HASH_LEN; i++) {
+            int cmp = (r1[i] & 0xFF) - (r2[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    public static SlotHashTable wrap(ByteBuffer buffer) {
+        return new SlotHashTable(buffer);
+    }
+
+    public static SlotHashTable load(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try (FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+                return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        // packed into jar, can't be mapped
+        try (InputStream in = url.openStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[64 * 1024];
+            for (int read; (read = in.read(chunk)) > 0; ) {
+                out.write(chunk, 0, read);
+            }
+            return wrap(ByteBuffer.wrap(out.toByteArray()));
+        }
+    }
+
+    private static SlotHashTable loadDefault() {
+        URL url = SlotHashTable.class.getClassLoader().getResource(RESOURCE);
+        if (isNull(url)) {
+            log.warn("Slot hash table resource '{}' not found, calculating {} hashes.", RESOURCE, DEFAULT_SIZE);
+        } else {
+            try {
+                return load(url);
+            } catch (Exception e) {
+                log.error("Cannot load slot hash table from " + url + ", calculating " + DEFAULT_SIZE + " hashes: ", e);
+            }
+        }
+        return calculate(DEFAULT_SIZE);
+    }
+
+    /**
+     * Generates table resource at build time.
+     *
+     * @param args output file, table size
+     */
+    public static void main(String[] args) throws IOException {
+        File file = new File(args[0]);
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            calculate(parseInt(args[1])).write(out);
+        }
+    }
+}
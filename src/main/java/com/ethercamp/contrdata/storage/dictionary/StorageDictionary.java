@@ -16,8 +16,8 @@ import org.ethereum.util.Utils;
 import org.ethereum.vm.DataWord;
 import org.spongycastle.util.encoders.Hex;
 
-import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -129,7 +129,7 @@ public class StorageDictionary {
         @JsonProperty
         public Type type;
         @JsonProperty
-        public String key;
+        public PathKey key;
         @JsonProperty
         public byte[] storageKey;
 
@@ -152,7 +152,7 @@ public class StorageDictionary {
         public PathElement() {
         }
 
-        public PathElement(Type type, String key, byte[] storageKey) {
+        public PathElement(Type type, PathKey key, byte[] storageKey) {
             this.type = type;
             this.key = key;
             this.storageKey = storageKey;
@@ -160,22 +160,26 @@ public class StorageDictionary {
 
         // using some 'random' hash for root since storageKey '0' is used
         private static final byte[] rootHash = Hex.decode("cccccccccccccccccccccccccccccccccccccccccccccccccccccccccccccccc");
-        private static final String NO_OFFSET_KEY = "0";
+        private static final PathKey NO_OFFSET_KEY = PathKey.ZERO;
 
         private static PathElement createRoot() {
             return new PathElement(Type.Root, NO_OFFSET_KEY, rootHash);
         }
 
         public PathElement(Type type, int indexOffset, byte[] storageKey) {
-            this(type, String.valueOf(indexOffset), storageKey);
+            this(type, PathKey.of(indexOffset), storageKey);
         }
 
-        public static PathElement createMapKey(String key, byte[] storageKey) {
+        public static PathElement createMapKey(PathKey key, byte[] storageKey) {
             return new PathElement(Type.MapKey, key, storageKey);
         }
 
+        public static PathElement createMapKey(String key, byte[] storageKey) {
+            return createMapKey(PathKey.text(key), storageKey);
+        }
+
         public static PathElement createMapKey(int key, byte[] storageKey) {
-            return createMapKey(String.valueOf(key), storageKey);
+            return createMapKey(PathKey.of(key), storageKey);
         }
 
         @Override
@@ -349,12 +353,11 @@ public class StorageDictionary {
         }
 
         public static byte[] toVirtualStorageKey(byte[] childStorageKey) {
-            BigInteger i = bytesToBigInteger(childStorageKey).subtract(BigInteger.ONE);
-            return bigIntegerToBytes(i, 32);
+            return UInt256.decrement(childStorageKey);
         }
 
         private boolean canBeCompactedWithParent() {
-            return is(Type.Offset) && "0".equals(key);
+            return is(Type.Offset) && NO_OFFSET_KEY.equals(key);
         }
 
         public Iterator<PathElement> getChildrenIterator() {
@@ -400,11 +403,32 @@ public class StorageDictionary {
             return result;
         }
 
+        /**
+         * @param childHash hash of the child the page starts after, null for the first page
+         */
+        public List<PathElement> getChildrenAfter(byte[] childHash, int count) {
+            PathElement cur = getFirstChild();
+            if (nonNull(childHash)) {
+                PathElement after = dictionary.get(childHash);
+                if (!hasChild(after)) {
+                    throw new IllegalArgumentException("Element " + shortHash(childHash) + " isn't a child of " + shortHash(storageKey));
+                }
+                cur = after.getNextSibling();
+            }
+
+            List<PathElement> result = new ArrayList<>(count);
+            for (; nonNull(cur) && result.size() < count; cur = cur.getNextSibling()) {
+                result.add(cur);
+            }
+
+            return result;
+        }
+
         public PathElement findChildByKey(String key) {
             Iterator<PathElement> children = getChildrenIterator();
             while (children.hasNext()) {
                 PathElement child = children.next();
-                if (StringUtils.equals(child.key, key)) {
+                if (StringUtils.equals(child.key.toString(), key)) {
                     return child;
                 }
             }
@@ -431,19 +455,12 @@ public class StorageDictionary {
         public String[] getFullPath() {
             return is(Type.Root)
                     ? EMPTY_STRING_ARRAY
-                    : Utils.mergeArrays(getParent().getFullPath(), new String[]{key});
+                    : Utils.mergeArrays(getParent().getFullPath(), new String[]{key.toString()});
         }
 
         @Override
         public int compareTo(PathElement o) {
             if (type != o.type) return type.compareTo(o.type);
-            if (is(Type.Offset) || is(Type.StorageIndex) || is(Type.ArrayIndex)) {
-                try {
-                    return new BigInteger(key, 16).compareTo(new BigInteger(o.key, 16));
-                } catch (NumberFormatException e) {
-                    // fallback to string compare
-                }
-            }
             return key.compareTo(o.key);
         }
 
@@ -518,17 +535,21 @@ public class StorageDictionary {
             return s;
         }
 
+        // elements stored before the keys were typed have only 9 items and the key as string
+        private static final int KEY_KIND_ITEM = 9;
+
         public byte[] serialize() {
             return RLP.encodeList(
                     RLP.encodeInt(type.ordinal()),
-                    RLP.encodeString(key),
+                    RLP.encodeElement(key.encode()),
                     RLP.encodeElement(nullToEmpty(storageKey)),
                     RLP.encodeElement(childrenCompacted == null ? EMPTY_BYTE_ARRAY : (childrenCompacted ? new byte[]{1} : new byte[]{0})),
                     RLP.encodeInt(childrenCount),
                     RLP.encodeElement(nullToEmpty(parentHash)),
                     RLP.encodeElement(nullToEmpty(nextSiblingHash)),
                     RLP.encodeElement(nullToEmpty(firstChildHash)),
-                    RLP.encodeElement(nullToEmpty(lastChildHash))
+                    RLP.encodeElement(nullToEmpty(lastChildHash)),
+                    RLP.encodeInt(key.getKind().ordinal())
             );
         }
 
@@ -537,7 +558,9 @@ public class StorageDictionary {
 
             RLPList list = (RLPList) RLP.decode2(bytes).get(0);
             result.type = Type.values()[byteArrayToInt(list.get(0).getRLPData())];
-            result.key = new String(list.get(1).getRLPData());
+            result.key = list.size() > KEY_KIND_ITEM
+                    ? PathKey.decode(PathKey.Kind.values()[byteArrayToInt(list.get(KEY_KIND_ITEM).getRLPData())], list.get(1).getRLPData())
+                    : legacyKey(result.type, new String(nullToEmpty(list.get(1).getRLPData())));
             result.storageKey = list.get(2).getRLPData();
             byte[] compB = list.get(3).getRLPData();
             result.childrenCompacted = compB == null ? null : (compB[0] == 0 ? Boolean.FALSE : Boolean.TRUE);
@@ -550,6 +573,11 @@ public class StorageDictionary {
             return result;
         }
 
+        // int and text map keys were stored alike, so only the keys of index elements are known to be numbers
+        private static PathKey legacyKey(Type type, String key) {
+            return type == Type.MapKey ? PathKey.text(key) : PathKey.parse(key);
+        }
+
         PathElement copyLight() {
             PathElement ret = new PathElement();
             ret.type = type;
@@ -626,7 +654,8 @@ public class StorageDictionary {
     private PathElement root;
     private boolean exist;
 
-    private Map<ByteArrayWrapper, PathElement> cache = new HashMap<>();
+    // loaded and modified elements, readers may share the dictionary
+    private final Map<ByteArrayWrapper, PathElement> cache = new ConcurrentHashMap<>();
     private List<PathElement> dirtyNodes = new ArrayList<>();
 
     public StorageDictionary(KeyValueDataSource storageDb) {
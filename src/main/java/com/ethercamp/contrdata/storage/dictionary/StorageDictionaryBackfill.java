@@ -0,0 +1,252 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.ethereum.core.Block;
+import org.ethereum.core.Repository;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionExecutor;
+import org.ethereum.db.BlockStore;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Math.floorMod;
+import static java.lang.Math.max;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Builds storage dictionaries for a historical block range by replaying its transactions,
+ * instead of waiting for the live {@link StorageDictionaryVmHook} to pass the whole chain.
+ * <p>
+ * Every block is replayed on top of its parent's state snapshot, so blocks are replayed in parallel
+ * (requires the state not to be pruned). Captured changes are sharded by contract address across
+ * writer threads, which resolve key paths and apply them through the {@link StorageDictionaryDb} bulk-write path.
+ * Replayed blocks are handed to the writers in the block order, so changes of a contract are written
+ * in the order they happened on chain (sibling order of unsorted keys depends on it).
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class StorageDictionaryBackfill {
+
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+
+    @Getter
+    @ToString
+    @RequiredArgsConstructor
+    public static class Stats {
+        private final long blocks;
+        private final long transactions;
+        private final long keys;
+        private final long errors;
+        private final long millis;
+
+        public double getBlocksPerSecond() {
+            return perSecond(blocks);
+        }
+
+        public double getKeysPerSecond() {
+            return perSecond(keys);
+        }
+
+        private double perSecond(long count) {
+            return millis == 0 ? 0 : count * 1000.0 / millis;
+        }
+    }
+
+    private final StorageDictionaryVmHook vmHook;
+    private final StorageDictionaryDb dictionaryDb;
+    private final BlockStore blockStore;
+    private final Repository repository;
+    private final ProgramInvokeFactory programInvokeFactory;
+
+    @Setter
+    private int replayThreads = CPUS;
+    @Setter
+    private int writerThreads = max(1, CPUS / 2);
+    @Setter
+    private long reportIntervalMillis = 10_000;
+
+    private final AtomicLong blocks = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong keys = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong();
+    private long startTime;
+    // replayed blocks waiting for the preceding ones to be handed to the writers, guarded by itself
+    private final NavigableMap<Long, Runnable> replayed = new TreeMap<>();
+    private long nextToWrite;
+
+    /**
+     * Replays blocks [fromBlock, toBlock] and waits until all the changes are written.
+     */
+    public synchronized Stats run(long fromBlock, long toBlock) throws InterruptedException {
+        blocks.set(0);
+        transactions.set(0);
+        keys.set(0);
+        errors.set(0);
+        startTime = System.currentTimeMillis();
+        lastReport.set(startTime);
+        replayed.clear();
+        nextToWrite = max(1, fromBlock);
+
+        ExecutorService replayers = Executors.newFixedThreadPool(replayThreads);
+        ExecutorService[] writers = new ExecutorService[writerThreads];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = Executors.newSingleThreadExecutor();
+        }
+        // a permit is held by a block until it's replayed and all its changes are written,
+        // so the replayed but not written yet changes are bounded even if the writers lag
+        Semaphore inFlight = new Semaphore(replayThreads * 4);
+
+        try {
+            for (long number = max(1, fromBlock); number <= toBlock; number++) {
+                final long blockNumber = number;
+                inFlight.acquire();
+                replayers.execute(() -> {
+                    AtomicInteger pending = new AtomicInteger(1);
+                    Runnable done = () -> {
+                        if (pending.decrementAndGet() == 0) {
+                            inFlight.release();
+                        }
+                    };
+                    BlockChanges changes = null;
+                    try {
+                        changes = replay(blockNumber);
+                        blocks.incrementAndGet();
+                        report(false);
+                    } catch (Throwable e) {
+                        errors.incrementAndGet();
+                        log.error("Cannot replay block " + blockNumber + ": ", e);
+                    }
+
+                    BlockChanges replayedChanges = changes;
+                    writeInOrder(blockNumber, () -> {
+                        try {
+                            if (isNull(replayedChanges)) return;
+                            replayedChanges.getContracts().forEach(contract -> {
+                                pending.incrementAndGet();
+                                writers[shard(contract)].execute(() -> {
+                                    try {
+                                        write(contract);
+                                    } finally {
+                                        done.run();
+                                    }
+                                });
+                            });
+                        } finally {
+                            done.run();
+                        }
+                    });
+                });
+            }
+        } finally {
+            shutdown(replayers);
+            for (ExecutorService writer : writers) {
+                shutdown(writer);
+            }
+            dictionaryDb.flush();
+        }
+
+        return report(true);
+    }
+
+    private BlockChanges replay(long number) {
+        Block block = blockStore.getChainBlockByNumber(number);
+        if (isNull(block)) {
+            throw new IllegalArgumentException("Block " + number + " not found.");
+        }
+        if (block.getTransactionsList().isEmpty()) {
+            return new BlockChanges(number, dictionaryDb.getPreimageStore());
+        }
+
+        Block parent = blockStore.getBlockByHash(block.getParentHash());
+        if (isNull(parent)) {
+            throw new IllegalArgumentException("Parent of block " + number + " not found.");
+        }
+        Repository track = repository.getSnapshotTo(parent.getStateRoot()).startTracking();
+        try {
+            return vmHook.capture(number, dictionaryDb.getPreimageStore(), () -> {
+                long gasUsed = 0;
+                for (Transaction tx : block.getTransactionsList()) {
+                    TransactionExecutor executor = new TransactionExecutor(tx, block.getCoinbase(), track, blockStore,
+                            programInvokeFactory, block, new EthereumListenerAdapter(), gasUsed);
+                    executor.init();
+                    executor.execute();
+                    executor.go();
+                    executor.finalization();
+
+                    gasUsed += executor.getGasUsed();
+                    transactions.incrementAndGet();
+                }
+            });
+        } finally {
+            track.rollback();
+        }
+    }
+
+    /**
+     * Hands the replayed block to the writers once all the preceding blocks are handed, failed ones included.
+     * The earliest waiting block holds an in-flight permit, so the blocks waiting behind it are bounded too.
+     */
+    private void writeInOrder(long number, Runnable dispatch) {
+        synchronized (replayed) {
+            replayed.put(number, dispatch);
+            Map.Entry<Long, Runnable> next;
+            while (nonNull(next = replayed.firstEntry()) && next.getKey() == nextToWrite) {
+                replayed.remove(next.getKey());
+                nextToWrite++;
+                next.getValue().run();
+            }
+        }
+    }
+
+    private void write(ContractChanges contract) {
+        try {
+            Map<Layout.DictPathResolver, List<StorageDictionary.PathElement[]>> pathsByResolver = contract.resolvePaths(vmHook.getPathResolvers());
+            dictionaryDb.write(contract.getAddress(), pathsByResolver, contract.getSha3Index().resolvedEntries());
+            keys.addAndGet(contract.getStorageKeys().size());
+        } catch (Throwable e) {
+            errors.incrementAndGet();
+            log.error("Cannot write dictionary changes: ", e);
+        }
+    }
+
+    // blocks are handed to the writers in order, so the changes of a contract are written by the same thread in the block order
+    private int shard(ContractChanges contract) {
+        return floorMod(Arrays.hashCode(contract.getAddress()), writerThreads);
+    }
+
+    private Stats report(boolean force) {
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        Stats stats = new Stats(blocks.get(), transactions.get(), keys.get(), errors.get(), now - startTime);
+
+        if (force || (now - last >= reportIntervalMillis && lastReport.compareAndSet(last, now))) {
+            log.info("Dictionary backfill: {} blocks ({} blocks/s), {} txs, {} keys ({} keys/s), {} errors",
+                    stats.getBlocks(), String.format("%.1f", stats.getBlocksPerSecond()), stats.getTransactions(),
+                    stats.getKeys(), String.format("%.1f", stats.getKeysPerSecond()), stats.getErrors());
+        }
+        return stats;
+    }
+
+    private static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+}
@@ -1,5 +1,7 @@
 package com.ethercamp.contrdata.storage.dictionary;
 
+import com.ethercamp.contrdata.utils.Keccak256;
+import lombok.Getter;
 import org.ethereum.datasource.CachingDataSource;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.datasource.XorDataSource;
@@ -11,34 +13,63 @@ import org.springframework.stereotype.Service;
 import javax.annotation.PreDestroy;
 import java.io.Closeable;
 import java.io.Flushable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
- * DB managing the Layout => Contract => StorageDictionary mapping
+ * DB managing the Layout => Contract => StorageDictionary mapping,
+ * the SHA3 preimages shared by all the contracts and the detected contract languages.
  * <p>
  * Created by Anton Nashatyrev on 10.09.2015.
  */
 @Service
 public class StorageDictionaryDb implements Flushable, Closeable {
 
+    private static final byte[] PREIMAGES_FINGERPRINT = Keccak256.hash("preimages".getBytes());
+    private static final byte[] LANGUAGES_FINGERPRINT = Keccak256.hash("languages".getBytes());
+
     private CachingDataSource db;
+    @Getter
+    private final PreimageStore preimageStore;
+    @Getter
+    private final ContractLangStore langStore;
 
     @Autowired
     public StorageDictionaryDb(@Qualifier("storageDict") KeyValueDataSource dataSource) {
         this.db = new CachingDataSource(dataSource);
+        this.preimageStore = new PreimageStore(new XorDataSource(db, PREIMAGES_FINGERPRINT), this, PreimageStore.DEFAULT_CACHE_SIZE);
+        this.langStore = new ContractLangStore(new XorDataSource(db, LANGUAGES_FINGERPRINT), this, ContractLangStore.DEFAULT_CACHE_SIZE);
     }
 
     @Override
-    public void flush() {
+    public synchronized void flush() {
         db.flush();
     }
 
     @PreDestroy
     @Override
-    public void close() {
+    public synchronized void close() {
         db.flush();
         db.close();
     }
 
+    /**
+     * Bulk write path: applies resolved paths of a contract to the dictionaries of their languages
+     * and saves the preimages the paths were resolved with, see {@link Sha3Index#resolvedEntries()}.
+     * Changes are persisted on {@link #flush()}.
+     */
+    public synchronized void write(byte[] contractAddress,
+                                   Map<Layout.DictPathResolver, List<StorageDictionary.PathElement[]>> pathsByResolver,
+                                   Collection<Sha3Index.Entry> preimages) {
+        pathsByResolver.forEach((resolver, paths) -> {
+            StorageDictionary dictionary = getDictionaryFor(resolver.getLang(), contractAddress);
+            paths.forEach(dictionary::addPath);
+            dictionary.store();
+        });
+        preimageStore.putAll(preimages);
+    }
+
     public StorageDictionary getDictionaryFor(Layout.Lang lang, byte[] contractAddress) {
         byte[] key = ByteUtil.xorAlignRight(lang.getFingerprint(), contractAddress);
         XorDataSource dataSource = new XorDataSource(db, key);
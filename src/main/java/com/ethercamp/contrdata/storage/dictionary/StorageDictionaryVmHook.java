@@ -1,7 +1,18 @@
 package com.ethercamp.contrdata.storage.dictionary;
 
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import com.ethercamp.contrdata.storage.StorageDiff;
+import com.ethercamp.contrdata.storage.StorageDiffStore;
+import com.ethercamp.contrdata.storage.StorageKeyIndex;
+import com.ethercamp.contrdata.utils.Keccak256;
+import org.ethereum.core.AccountState;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionExecutionSummary;
 import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.listener.EthereumListenerAdapter;
 import org.ethereum.vm.DataWord;
 import org.ethereum.vm.OpCode;
 import org.ethereum.vm.VM;
@@ -12,30 +23,86 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.util.HashMap;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiConsumer;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
-import static java.util.stream.Collectors.toMap;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.ArrayUtils.nullToEmpty;
+import static org.ethereum.crypto.HashUtil.EMPTY_DATA_HASH;
 import static org.ethereum.util.ByteUtil.toHexString;
 
+/**
+ * Collects storage keys and SHA3 preimages of every contract execution and indexes them
+ * into the contract's storage dictionary.
+ * <p>
+ * Changes are staged per call frame: a successful frame passes its changes to the caller's frame,
+ * a failed one (exception, out of gas) discards them together with the changes of its nested calls,
+ * so only the changes of the successful executions are indexed.
+ * <p>
+ * Changes are accumulated per block and applied once the block is imported, so the hook
+ * is registered as {@link org.ethereum.listener.EthereumListener} too (see {@link com.ethercamp.contrdata.config.ContractDataConfig}).
+ * Blocks which weren't reported in time (e.g. the hook isn't registered as a listener)
+ * are applied when the executions go {@value #MAX_PENDING_BLOCKS} blocks ahead, the rest are applied on shutdown.
+ * <p>
+ * Old and new values of the slots changed by a transaction are recorded into {@link StorageDiffStore}
+ * when the transaction execution is reported on the executing thread, the same diff and the contracts deleted
+ * by the transaction are staged into {@link StorageKeyIndex} until the block of the transaction is imported.
+ */
 @Slf4j
 @Component
-public class StorageDictionaryVmHook implements VMHook {
+public class StorageDictionaryVmHook extends EthereumListenerAdapter implements VMHook {
+
+    private static final int MAX_PENDING_BLOCKS = 16;
 
     @Autowired
     private StorageDictionaryDb dictionaryDb;
     @Autowired
     private List<Layout.DictPathResolver> pathResolvers;
-    private java.util.Stack<StorageKeys> storageKeysStack = new java.util.Stack<>();
-    private java.util.Stack<Sha3Index> sha3IndexStack = new java.util.Stack<>();
+    @Autowired
+    private Sha3CapturePolicy sha3CapturePolicy;
+    @Autowired
+    private StorageDiffStore diffStore;
+    @Autowired
+    private StorageKeyIndex keyIndex;
+    /**
+     * Nested calls are played by the same thread as their caller,
+     * so every thread running the EVM gets its own stack of frames.
+     */
+    private final ThreadLocal<ExecutionContext> executionContext = ThreadLocal.withInitial(ExecutionContext::new);
+    private final NavigableMap<Long, BlockChanges> pendingBlocks = new ConcurrentSkipListMap<>();
+    /**
+     * Set for threads replaying historical blocks, see {@link #capture(long, PreimageStore, Runnable)}.
+     */
+    private final ThreadLocal<BlockChanges> captureTarget = new ThreadLocal<>();
+    /**
+     * Changes of the last successful execution waiting for its transaction to be reported.
+     */
+    private final ThreadLocal<PendingDiff> pendingDiff = new ThreadLocal<>();
 
     @PostConstruct
     public void initVmHook() {
         VM.setVmHook(this);
     }
 
+    @PreDestroy
+    public void commitPendingBlocks() {
+        try {
+            commitBlocks(Long.MAX_VALUE);
+        } catch (Throwable e) {
+            log.error("Error within handler: ", e);
+        }
+    }
+
     private byte[] getContractAddress(Program program) {
         return program.getOwnerAddress().getLast20Bytes();
     }
@@ -43,8 +110,11 @@ public class StorageDictionaryVmHook implements VMHook {
     @Override
     public void startPlay(Program program) {
         try {
-            storageKeysStack.push(new StorageKeys());
-            sha3IndexStack.push(new Sha3Index());
+            ExecutionContext context = executionContext.get();
+            if (context.isEmpty()) {
+                pendingDiff.remove();
+            }
+            context.push(new Frame(getContractAddress(program)));
         } catch (Throwable e) {
             log.error("Error within handler: ", e);
         }
@@ -54,19 +124,24 @@ public class StorageDictionaryVmHook implements VMHook {
     public void step(Program program, OpCode opcode) {
         try {
             Stack stack = program.getStack();
+            Frame frame = executionContext.get().peek();
+            // previous opcode was SHA3, so its result is on the top of the stack now
+            frame.capturePendingSha3(stack);
+
             switch (opcode) {
                 case SSTORE:
                     DataWord key = stack.get(stack.size() - 1);
                     DataWord value = stack.get(stack.size() - 2);
 
-                    storageKeysStack.peek().add(key, value);
+                    frame.getOwnChanges().getStorageKeys().add(key, value, program::storageLoad);
                     break;
                 case SHA3:
                     DataWord offset = stack.get(stack.size() - 1);
                     DataWord size = stack.get(stack.size() - 2);
-                    byte[] input = program.memoryChunk(offset.intValue(), size.intValue());
 
-                    sha3IndexStack.peek().add(input);
+                    if (sha3CapturePolicy.accept(size.intValue())) {
+                        frame.setPendingSha3Input(program.memoryChunk(offset.intValue(), size.intValue()));
+                    }
                     break;
             }
         } catch (Throwable e) {
@@ -77,48 +152,212 @@ public class StorageDictionaryVmHook implements VMHook {
     @Override
     public void stopPlay(Program program) {
         try {
-            final byte[] address = getContractAddress(program);
-
-            final StorageKeys storageKeys = storageKeysStack.pop();
-            final Sha3Index sha3Index = sha3IndexStack.pop();
+            final ExecutionContext context = executionContext.get();
+            final Frame frame = context.pop();
+            final Frame caller = context.peek();
 
-            final Map<Layout.Lang, StorageDictionary> dictByLang = pathResolvers.stream()
-                    .collect(toMap(Layout.DictPathResolver::getLang, r -> dictionaryDb.getDictionaryFor(r.getLang(), address)));
+            long blockNumber = program.getNumber().longValue();
+            BlockChanges target = captureTarget.get();
+            if (isNull(program.getResult().getException())) {
+                // SHA3 was the last executed opcode
+                frame.capturePendingSha3(program.getStack());
 
-            storageKeys.forEach((key, removed) -> {
-                pathResolvers.forEach(resolver -> {
-                    StorageDictionary.PathElement[] path = resolver.resolvePath(key.getData(), sha3Index);
-                    StorageDictionary dictionary = dictByLang.get(resolver.getLang());
-                    dictionary.addPath(path);
-                });
-            });
+                ContractChanges own = frame.getOwnChanges();
+                own.setLang(detectLang(program));
 
-            dictByLang.values().forEach(StorageDictionary::store);
+                Collection<ContractChanges> staged = frame.getStaged().values();
+                if (nonNull(caller)) {
+                    staged.forEach(caller::stage);
+                } else if (nonNull(target)) {
+                    target.merge(staged);
+                } else {
+                    while (!getBlockChanges(blockNumber).merge(staged)) {
+                        // block has just been committed, start collecting the late changes anew
+                    }
+                    pendingDiff.set(new PendingDiff(program.getOriginAddress().getLast20Bytes(), own.getAddress(), staged));
+                }
+            }
 
-            if (storageKeysStack.isEmpty()) {
-                dictionaryDb.flush();
+            if (context.isEmpty()) {
+                executionContext.remove();
+                if (isNull(target)) {
+                    commitBlocks(blockNumber - MAX_PENDING_BLOCKS);
+                }
             }
         } catch (Throwable e) {
             log.error("Error within handler address[" + toHexString(getContractAddress(program)) + "]: ", e);
         }
     }
 
-    private static class StorageKeys {
+    /**
+     * Language of the storage owner, which is the caller for DELEGATECALL and the contract being deployed for CREATE,
+     * so the executed code isn't used as is.
+     */
+    private Layout.Lang detectLang(Program program) {
+        AccountState state = program.getStorage().getAccountState(getContractAddress(program));
+        if (nonNull(state) && !Arrays.equals(state.getCodeHash(), EMPTY_DATA_HASH)) {
+            return dictionaryDb.getLangStore().get(state.getCodeHash(), () -> program.getCodeAt(program.getOwnerAddress()));
+        }
 
-        private static final DataWord REMOVED_VALUE = new DataWord(0);
+        // contract is being created, its runtime code is returned by the init code
+        byte[] code = nullToEmpty(program.getResult().getHReturn());
+        return dictionaryDb.getLangStore().get(Keccak256.hash(code), () -> code);
+    }
 
-        private final Map<ByteArrayWrapper, Boolean> keys = new HashMap<>();
+    @Override
+    public void onTransactionExecuted(TransactionExecutionSummary summary) {
+        try {
+            PendingDiff pending = pendingDiff.get();
+            pendingDiff.remove();
+
+            Transaction tx = summary.getTransaction();
+            if (nonNull(pending) && pending.isOf(tx) && !pending.getDiff().isEmpty()) {
+                diffStore.put(tx.getHash(), pending.getDiff());
+                keyIndex.stage(tx.getHash(), pending.getDiff());
+            }
+            keyIndex.stageDeleted(tx.getHash(), summary.getDeletedAccounts().stream().map(DataWord::getLast20Bytes).collect(toList()));
+        } catch (Throwable e) {
+            log.error("Error within handler tx[" + toHexString(summary.getTransaction().getHash()) + "]: ", e);
+        }
+    }
 
-        public void add(DataWord key, DataWord value) {
-            keys.put(new ByteArrayWrapper(key.clone().getData()), isRemoved(value));
+    @Override
+    public void onBlock(BlockSummary blockSummary) {
+        try {
+            commitBlocks(blockSummary.getBlock().getNumber());
+            keyIndex.onBlock(blockSummary.getBlock());
+        } catch (Throwable e) {
+            log.error("Error within handler block[" + blockSummary.getBlock().getNumber() + "]: ", e);
         }
+    }
+
+    private BlockChanges getBlockChanges(long number) {
+        return pendingBlocks.computeIfAbsent(number, n -> new BlockChanges(n, dictionaryDb.getPreimageStore()));
+    }
 
-        public void forEach(BiConsumer<? super ByteArrayWrapper, ? super Boolean> action) {
-            keys.forEach(action);
+    /**
+     * Applies changes of all the pending blocks up to the specified one (inclusive).
+     */
+    public void commitBlocks(long upToNumber) {
+        Map.Entry<Long, BlockChanges> entry;
+        while (nonNull(entry = pendingBlocks.firstEntry()) && entry.getKey() <= upToNumber) {
+            if (pendingBlocks.remove(entry.getKey(), entry.getValue())) {
+                commit(entry.getValue());
+            }
         }
+    }
+
+    /**
+     * Runs the execution (e.g. historical block replay) collecting its changes aside of the live indexing.
+     * Changes aren't applied, the caller is in charge of it.
+     *
+     * @param preimages store of the dictionary DB the changes are going to be written to
+     */
+    BlockChanges capture(long blockNumber, PreimageStore preimages, Runnable execution) {
+        BlockChanges result = new BlockChanges(blockNumber, preimages);
+        captureTarget.set(result);
+        try {
+            execution.run();
+        } finally {
+            captureTarget.remove();
+        }
+        result.close();
+        return result;
+    }
+
+    List<Layout.DictPathResolver> getPathResolvers() {
+        return pathResolvers;
+    }
+
+    private void commit(BlockChanges block) {
+        block.close();
+        if (block.isEmpty()) return;
+
+        // resolution doesn't touch the DB, so only the write phase is serialized
+        block.getContracts().forEach(contract -> {
+            Map<Layout.DictPathResolver, List<StorageDictionary.PathElement[]>> pathsByResolver = contract.resolvePaths(pathResolvers);
+            dictionaryDb.write(contract.getAddress(), pathsByResolver, contract.getSha3Index().resolvedEntries());
+        });
+        dictionaryDb.flush();
+    }
+
+    /**
+     * Call frames of a single EVM execution (transaction, eth_call, trace etc.) bound to the playing thread.
+     */
+    private static class ExecutionContext {
+
+        private final Deque<Frame> frames = new ArrayDeque<>();
+
+        public void push(Frame frame) {
+            frames.push(frame);
+        }
+
+        public Frame peek() {
+            return frames.peek();
+        }
+
+        public Frame pop() {
+            return frames.pop();
+        }
+
+        public boolean isEmpty() {
+            return frames.isEmpty();
+        }
+    }
+
+    /**
+     * Changes made by a successful outermost execution, see {@link #onTransactionExecuted(TransactionExecutionSummary)}.
+     */
+    @Getter
+    private static class PendingDiff {
+
+        private final byte[] origin;
+        private final byte[] address;
+        private final StorageDiff diff = new StorageDiff();
+
+        PendingDiff(byte[] origin, byte[] address, Collection<ContractChanges> changes) {
+            this.origin = origin;
+            this.address = address;
+            changes.forEach(contract -> contract.getStorageKeys().forEach((key, change) ->
+                    diff.put(contract.getAddress(), new DataWord(key.getData()), change)));
+        }
+
+        // executions of calls which aren't transactions (e.g. eth_call) aren't reported
+        public boolean isOf(Transaction tx) {
+            byte[] receiver = tx.isContractCreation() ? tx.getContractAddress() : tx.getReceiveAddress();
+            return Arrays.equals(origin, tx.getSender()) && Arrays.equals(address, receiver);
+        }
+    }
+
+    @Getter
+    private static class Frame {
+
+        // changes of this frame and its successfully finished nested calls by contract, in the order they were made
+        private final Map<ByteArrayWrapper, ContractChanges> staged = new LinkedHashMap<>();
+        private final ContractChanges ownChanges;
+        @Setter
+        private byte[] pendingSha3Input;
+
+        Frame(byte[] address) {
+            this.ownChanges = new ContractChanges(address, null);
+            staged.put(new ByteArrayWrapper(address), ownChanges);
+        }
+
+        public void stage(ContractChanges changes) {
+            staged.computeIfAbsent(new ByteArrayWrapper(changes.getAddress()), addr -> new ContractChanges(changes.getAddress(), null))
+                    .merge(changes);
+        }
+
+        /**
+         * The VM hashes SHA3 input right after {@link StorageDictionaryVmHook#step(Program, OpCode)} is called,
+         * so instead of hashing it twice the result is taken from the stack on the next step.
+         */
+        public void capturePendingSha3(Stack stack) {
+            if (isNull(pendingSha3Input) || stack.isEmpty()) return;
 
-        private Boolean isRemoved(DataWord value) {
-            return REMOVED_VALUE.equals(value);
+            byte[] output = stack.peek().clone().getData();
+            ownChanges.getSha3Index().add(pendingSha3Input, output);
+            pendingSha3Input = null;
         }
     }
 }
@@ -0,0 +1,55 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import com.ethercamp.contrdata.storage.StorageDiff;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.vm.DataWord;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Storage keys written by SSTORE, each one with the value it had before the first write and the last written value.
+ */
+class StorageKeys {
+
+    private final Map<ByteArrayWrapper, StorageDiff.Change> keys = new LinkedHashMap<>();
+
+    /**
+     * @param oldValueLoader current value of the slot, called only for the first write of the key
+     */
+    public void add(DataWord key, DataWord newValue, Function<DataWord, DataWord> oldValueLoader) {
+        ByteArrayWrapper wrapper = new ByteArrayWrapper(key.clone().getData());
+        StorageDiff.Change existing = keys.get(wrapper);
+        DataWord oldValue = nonNull(existing) ? existing.getOldValue() : oldValueLoader.apply(key);
+
+        keys.put(wrapper, new StorageDiff.Change(isNull(oldValue) ? new DataWord() : oldValue.clone(), newValue.clone()));
+    }
+
+    private void add(ByteArrayWrapper key, StorageDiff.Change change) {
+        keys.merge(key, change, StorageDiff.Change::then);
+    }
+
+    /**
+     * Later writes override earlier ones.
+     */
+    public void addAll(StorageKeys other) {
+        other.keys.forEach(this::add);
+    }
+
+    public void forEach(BiConsumer<? super ByteArrayWrapper, ? super StorageDiff.Change> action) {
+        keys.forEach(action);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+}
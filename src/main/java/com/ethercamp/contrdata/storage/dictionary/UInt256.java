@@ -0,0 +1,287 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+/**
+ * Fixed width unsigned 256-bit number kept in four longs, the most significant word first.
+ * Replaces {@link java.math.BigInteger} on the dictionary hot paths: arithmetic is done in place (like {@link org.ethereum.vm.DataWord})
+ * and the static helpers on raw storage keys don't allocate except for the explicitly returned arrays.
+ * Byte arrays shorter than 32 bytes are treated as left padded with zeros, longer ones are truncated to the lowest 32 bytes.
+ */
+public final class UInt256 implements Comparable<UInt256> {
+
+    public static final int BYTES = 32;
+    private static final int WORDS = 4;
+
+    private long w0;
+    private long w1;
+    private long w2;
+    private long w3;
+
+    public UInt256() {
+    }
+
+    public UInt256(long value) {
+        this.w3 = value;
+    }
+
+    public static UInt256 of(byte[] bytes) {
+        return new UInt256().set(bytes);
+    }
+
+    public UInt256 set(byte[] bytes) {
+        w0 = word(bytes, 0);
+        w1 = word(bytes, 1);
+        w2 = word(bytes, 2);
+        w3 = word(bytes, 3);
+        return this;
+    }
+
+    public UInt256 set(UInt256 other) {
+        w0 = other.w0;
+        w1 = other.w1;
+        w2 = other.w2;
+        w3 = other.w3;
+        return this;
+    }
+
+    /**
+     * this = this + other (mod 2^256)
+     */
+    public UInt256 add(UInt256 other) {
+        long r3 = w3 + other.w3;
+        long carry = carry(w3, other.w3, r3);
+        long r2 = w2 + other.w2 + carry;
+        carry = carry(w2, other.w2, r2);
+        long r1 = w1 + other.w1 + carry;
+        carry = carry(w1, other.w1, r1);
+        w0 = w0 + other.w0 + carry;
+        w1 = r1;
+        w2 = r2;
+        w3 = r3;
+        return this;
+    }
+
+    /**
+     * this = this - other (mod 2^256)
+     */
+    public UInt256 subtract(UInt256 other) {
+        long r3 = w3 - other.w3;
+        long borrow = borrow(w3, other.w3, r3);
+        long r2 = w2 - other.w2 - borrow;
+        borrow = borrow(w2, other.w2, r2);
+        long r1 = w1 - other.w1 - borrow;
+        borrow = borrow(w1, other.w1, r1);
+        w0 = w0 - other.w0 - borrow;
+        w1 = r1;
+        w2 = r2;
+        w3 = r3;
+        return this;
+    }
+
+    // full adder / subtractor carry out, see Hacker's Delight 2-13
+    private static long carry(long a, long b, long sum) {
+        return ((a & b) | ((a | b) & ~sum)) >>> 63;
+    }
+
+    private static long borrow(long a, long b, long diff) {
+        return ((~a & b) | (~(a ^ b) & diff)) >>> 63;
+    }
+
+    /**
+     * this = -this (mod 2^256), i.e. two's complement
+     */
+    public UInt256 negate() {
+        w0 = ~w0;
+        w1 = ~w1;
+        w2 = ~w2;
+        w3 = ~w3 + 1;
+        if (w3 == 0) {
+            w2++;
+            if (w2 == 0) {
+                w1++;
+                if (w1 == 0) w0++;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Parses digits of the radix (up to 16), '-' prefixed numbers are taken as two's complement.
+     *
+     * @throws NumberFormatException if the value isn't a number or doesn't fit 256 bits
+     */
+    public static UInt256 parse(String value, int radix) {
+        int start = value.startsWith("-") ? 1 : 0;
+        if (value.length() == start || radix < 2 || radix > 16) {
+            throw new NumberFormatException("Invalid number '" + value + "' of radix " + radix);
+        }
+
+        long[] words = new long[WORDS];
+        for (int i = start; i < value.length(); i++) {
+            int digit = Character.digit(value.charAt(i), radix);
+            if (digit < 0 || multiplyAdd(words, radix, digit) != 0) {
+                throw new NumberFormatException("Invalid 256-bit number '" + value + "' of radix " + radix);
+            }
+        }
+
+        UInt256 result = new UInt256();
+        result.w0 = words[0];
+        result.w1 = words[1];
+        result.w2 = words[2];
+        result.w3 = words[3];
+        return start == 0 ? result : result.negate();
+    }
+
+    // words = words * multiplier + addend, done by 32-bit halves so that products fit long; returns the overflow
+    private static long multiplyAdd(long[] words, int multiplier, int addend) {
+        long carry = addend;
+        for (int i = WORDS - 1; i >= 0; i--) {
+            long low = (words[i] & 0xFFFFFFFFL) * multiplier + carry;
+            long high = (words[i] >>> 32) * multiplier + (low >>> 32);
+            words[i] = (high << 32) | (low & 0xFFFFFFFFL);
+            carry = high >>> 32;
+        }
+        return carry;
+    }
+
+    public int bitLength() {
+        return bitLength(w0, w1, w2, w3);
+    }
+
+    public boolean isZero() {
+        return (w0 | w1 | w2 | w3) == 0;
+    }
+
+    public int intValue() {
+        return (int) w3;
+    }
+
+    public void toBytes(byte[] out, int offset) {
+        putWord(w0, out, offset);
+        putWord(w1, out, offset + 8);
+        putWord(w2, out, offset + 16);
+        putWord(w3, out, offset + 24);
+    }
+
+    public byte[] toBytes() {
+        byte[] result = new byte[BYTES];
+        toBytes(result, 0);
+        return result;
+    }
+
+    @Override
+    public int compareTo(UInt256 o) {
+        int cmp = Long.compareUnsigned(w0, o.w0);
+        if (cmp != 0) return cmp;
+        cmp = Long.compareUnsigned(w1, o.w1);
+        if (cmp != 0) return cmp;
+        cmp = Long.compareUnsigned(w2, o.w2);
+        if (cmp != 0) return cmp;
+        return Long.compareUnsigned(w3, o.w3);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof UInt256)) return false;
+        UInt256 other = (UInt256) obj;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(w0 ^ w1 ^ w2 ^ w3);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (long word : new long[]{w0, w1, w2, w3}) {
+            if (result.length() == 0) {
+                if (word != 0) result.append(Long.toHexString(word));
+            } else {
+                String hex = Long.toHexString(word);
+                for (int i = hex.length(); i < 16; i++) result.append('0');
+                result.append(hex);
+            }
+        }
+        return result.length() == 0 ? "0" : result.toString();
+    }
+
+    /**
+     * Unsigned comparison of two numbers.
+     */
+    public static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < WORDS; i++) {
+            int cmp = Long.compareUnsigned(word(a, i), word(b, i));
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    /**
+     * Lowest 32 bits of (a - b). Exact for the offsets within a hashed container,
+     * since the lowest bits of a difference depend only on the lowest bits of the operands.
+     */
+    public static int intDifference(byte[] a, byte[] b) {
+        return (int) (word(a, WORDS - 1) - word(b, WORDS - 1));
+    }
+
+    /**
+     * @return true if (a - b) mod 2^256 is less than 2^bits
+     */
+    public static boolean differenceFits(byte[] a, byte[] b, int bits) {
+        long a3 = word(a, 3), b3 = word(b, 3), d3 = a3 - b3;
+        long borrow = borrow(a3, b3, d3);
+        long a2 = word(a, 2), b2 = word(b, 2), d2 = a2 - b2 - borrow;
+        borrow = borrow(a2, b2, d2);
+        long a1 = word(a, 1), b1 = word(b, 1), d1 = a1 - b1 - borrow;
+        borrow = borrow(a1, b1, d1);
+        long d0 = word(a, 0) - word(b, 0) - borrow;
+
+        return bitLength(d0, d1, d2, d3) <= bits;
+    }
+
+    private static int bitLength(long w0, long w1, long w2, long w3) {
+        if (w0 != 0) return 256 - Long.numberOfLeadingZeros(w0);
+        if (w1 != 0) return 192 - Long.numberOfLeadingZeros(w1);
+        if (w2 != 0) return 128 - Long.numberOfLeadingZeros(w2);
+        return 64 - Long.numberOfLeadingZeros(w3);
+    }
+
+    /**
+     * @return new 32 bytes array with value - 1 (mod 2^256)
+     */
+    public static byte[] decrement(byte[] value) {
+        byte[] result = new byte[BYTES];
+        int length = Math.min(value.length, BYTES);
+        System.arraycopy(value, value.length - length, result, BYTES - length, length);
+        for (int i = BYTES - 1; i >= 0; i--) {
+            if (result[i]-- != 0) break;
+        }
+        return result;
+    }
+
+    public static boolean isHex(String value) {
+        if (value == null || value.isEmpty()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static long word(byte[] bytes, int index) {
+        int start = index * 8 + bytes.length - BYTES;
+        long result = 0;
+        for (int i = start; i < start + 8; i++) {
+            result = (result << 8) | (i >= 0 ? bytes[i] & 0xFF : 0);
+        }
+        return result;
+    }
+
+    private static void putWord(long word, byte[] out, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            out[offset + i] = (byte) word;
+            word >>>= 8;
+        }
+    }
+}
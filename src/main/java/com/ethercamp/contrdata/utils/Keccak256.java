@@ -0,0 +1,131 @@
+package com.ethercamp.contrdata.utils;
+
+/**
+ * Keccak-256 (the original Keccak padding, as used by Ethereum SHA3 opcode).
+ * <p>
+ * Unlike {@link org.ethereum.crypto.HashUtil#sha3(byte[])} it doesn't create a digest per call:
+ * the state is reused, input is absorbed directly from the caller's buffer sub-range
+ * and the hash may be written into the caller's array. Instances are not thread-safe,
+ * static methods use an instance per thread.
+ */
+public final class Keccak256 {
+
+    public static final int DIGEST_LENGTH = 32;
+
+    private static final int RATE = 136;
+    private static final int RATE_LANES = RATE / 8;
+
+    private static final long[] ROUND_CONSTANTS = {
+            0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL, 0x8000000080008000L,
+            0x000000000000808bL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+            0x000000000000008aL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
+            0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L, 0x8000000000008003L,
+            0x8000000000008002L, 0x8000000000000080L, 0x000000000000800aL, 0x800000008000000aL,
+            0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+    };
+    private static final int[] ROTATIONS = {
+            1, 3, 6, 10, 15, 21, 28, 36, 45, 55, 2, 14, 27, 41, 56, 8, 25, 43, 62, 18, 39, 61, 20, 44
+    };
+    private static final int[] PI_LANES = {
+            10, 7, 11, 17, 18, 3, 5, 16, 8, 21, 24, 4, 15, 23, 19, 13, 12, 2, 20, 14, 22, 9, 6, 1
+    };
+
+    private static final ThreadLocal<Keccak256> INSTANCE = ThreadLocal.withInitial(Keccak256::new);
+
+    private final long[] state = new long[25];
+    private final long[] columns = new long[5];
+
+    public static byte[] hash(byte[] input) {
+        return hash(input, 0, input.length);
+    }
+
+    public static byte[] hash(byte[] input, int offset, int length) {
+        byte[] result = new byte[DIGEST_LENGTH];
+        hash(input, offset, length, result, 0);
+        return result;
+    }
+
+    public static void hash(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        INSTANCE.get().digest(input, offset, length, out, outOffset);
+    }
+
+    /**
+     * Hashes input[offset, offset + length) into out[outOffset, outOffset + 32).
+     */
+    public void digest(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        long[] a = state;
+        for (int i = 0; i < a.length; i++) {
+            a[i] = 0;
+        }
+
+        int end = offset + length;
+        for (; end - offset >= RATE; offset += RATE) {
+            for (int lane = 0; lane < RATE_LANES; lane++) {
+                a[lane] ^= readLane(input, offset + lane * 8);
+            }
+            permute();
+        }
+
+        int remaining = end - offset;
+        for (int i = 0; i < remaining; i++) {
+            a[i >>> 3] ^= (input[offset + i] & 0xFFL) << ((i & 7) << 3);
+        }
+        a[remaining >>> 3] ^= 0x01L << ((remaining & 7) << 3);
+        a[RATE_LANES - 1] ^= 0x80L << 56;
+        permute();
+
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            out[outOffset + i] = (byte) (a[i >>> 3] >>> ((i & 7) << 3));
+        }
+    }
+
+    private static long readLane(byte[] input, int offset) {
+        return (input[offset] & 0xFFL)
+                | (input[offset + 1] & 0xFFL) << 8
+                | (input[offset + 2] & 0xFFL) << 16
+                | (input[offset + 3] & 0xFFL) << 24
+                | (input[offset + 4] & 0xFFL) << 32
+                | (input[offset + 5] & 0xFFL) << 40
+                | (input[offset + 6] & 0xFFL) << 48
+                | (input[offset + 7] & 0xFFL) << 56;
+    }
+
+    private void permute() {
+        long[] a = state;
+        long[] c = columns;
+        for (int round = 0; round < 24; round++) {
+            // theta
+            for (int x = 0; x < 5; x++) {
+                c[x] = a[x] ^ a[x + 5] ^ a[x + 10] ^ a[x + 15] ^ a[x + 20];
+            }
+            for (int x = 0; x < 5; x++) {
+                long d = c[(x + 4) % 5] ^ Long.rotateLeft(c[(x + 1) % 5], 1);
+                for (int y = 0; y < 25; y += 5) {
+                    a[x + y] ^= d;
+                }
+            }
+
+            // rho and pi
+            long current = a[1];
+            for (int t = 0; t < 24; t++) {
+                int lane = PI_LANES[t];
+                long next = a[lane];
+                a[lane] = Long.rotateLeft(current, ROTATIONS[t]);
+                current = next;
+            }
+
+            // chi
+            for (int y = 0; y < 25; y += 5) {
+                for (int x = 0; x < 5; x++) {
+                    c[x] = a[y + x];
+                }
+                for (int x = 0; x < 5; x++) {
+                    a[y + x] = c[x] ^ (~c[(x + 1) % 5] & c[(x + 2) % 5]);
+                }
+            }
+
+            // iota
+            a[0] ^= ROUND_CONSTANTS[round];
+        }
+    }
+}
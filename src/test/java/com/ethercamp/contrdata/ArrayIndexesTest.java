@@ -0,0 +1,90 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.contract.ContractData;
+import com.ethercamp.contrdata.storage.dictionary.Layout;
+import com.ethercamp.contrdata.storage.dictionary.Sha3Index;
+import com.ethercamp.contrdata.storage.dictionary.UInt256;
+import org.ethereum.util.blockchain.SolidityContract;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.assertEquals;
+
+public class ArrayIndexesTest extends BaseTest {
+
+    private static final String SOURCE = "contract Arrays {\n" +
+            "    struct Pair {\n" +
+            "        uint x;\n" +
+            "        uint y;\n" +
+            "    }\n" +
+            "    uint[] items;\n" +
+            "    Pair[] pairs;\n" +
+            "    uint first;\n" +
+            "    uint[3] fixed;\n" +
+            "    uint last;\n" +
+            "    function Arrays() {\n" +
+            "        items.push(10);\n" +
+            "        items.push(20);\n" +
+            "        pairs.push(Pair(1, 2));\n" +
+            "        pairs.push(Pair(3, 4));\n" +
+            "        pairs.push(Pair(5, 6));\n" +
+            "        first = 1;\n" +
+            "        fixed[0] = 1;\n" +
+            "        fixed[2] = 3;\n" +
+            "        last = 4;\n" +
+            "    }\n" +
+            "}";
+
+    private static List<String> keys(ContractData.Element element) {
+        return element.getChildren(0, 10).stream()
+                .map(ContractData.Element::getKey)
+                .collect(toList());
+    }
+
+    private ContractData contractData() throws IOException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Arrays");
+        blockchain.createBlock();
+        return getContractData(contract, SOURCE, "Arrays");
+    }
+
+    @Test
+    public void testStructArrayItemsDeduplicated() throws IOException {
+        ContractData.Element pairs = getElement(contractData(), "pairs");
+
+        // every item takes two slots, but is listed once
+        assertEquals(3, pairs.getChildrenCount());
+        assertEquals(asList("0", "1", "2"), keys(pairs));
+    }
+
+    @Test
+    public void testStaticArrayBound() throws IOException {
+        ContractData.Element fixed = getElement(contractData(), "fixed");
+
+        // slot of the next member isn't taken for an item
+        assertEquals(2, fixed.getChildrenCount());
+        assertEquals(asList("0", "2"), keys(fixed));
+    }
+
+    @Test
+    public void testRecalculatedWhenDictionaryGrows() throws IOException {
+        ContractData contractData = contractData();
+        ContractData.Element items = getElement(contractData, "items");
+        assertEquals(asList("0", "1"), keys(items));
+
+        // item 2 of the array at slot 0 is added to the dictionary the element reads
+        Sha3Index index = new Sha3Index();
+        byte[] slot = new DataWord(0).getData();
+        index.add(slot);
+        byte[] itemKey = UInt256.of(sha3(slot)).add(new UInt256(2)).toBytes();
+        contractData.getDictionary().addPath(new Layout.SolidityDictPathResolver().resolvePath(itemKey, index));
+
+        assertEquals(3, items.getChildrenCount());
+        assertEquals(asList("0", "1", "2"), keys(items));
+    }
+}
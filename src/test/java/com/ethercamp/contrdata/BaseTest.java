@@ -8,6 +8,7 @@ import com.ethercamp.contrdata.storage.Storage;
 import com.ethercamp.contrdata.storage.dictionary.Layout;
 import com.ethercamp.contrdata.storage.dictionary.StorageDictionary;
 import com.ethercamp.contrdata.storage.dictionary.StorageDictionaryDb;
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionaryVmHook;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.SneakyThrows;
@@ -59,10 +60,13 @@ public abstract class BaseTest {
     static class Config {
 
         @Bean
-        public LocalBlockchain blockchain() {
-            return new StandaloneBlockchain()
+        public LocalBlockchain blockchain(StorageDictionaryVmHook vmHook) {
+            StandaloneBlockchain blockchain = new StandaloneBlockchain()
                     .withAutoblock(true)
                     .withGasLimit(3_000_000_000L);
+            // dictionary changes are applied on block import
+            blockchain.addEthereumListener(vmHook);
+            return blockchain;
         }
 
         @Bean
@@ -74,6 +78,11 @@ public abstract class BaseTest {
         public KeyValueDataSource storageDict() {
             return new HashMapDB();
         }
+
+        @Bean
+        public KeyValueDataSource storageDiff() {
+            return new HashMapDB();
+        }
     }
 
 
@@ -0,0 +1,48 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.contract.ContractData;
+import com.ethercamp.contrdata.storage.Path;
+import com.ethercamp.contrdata.storage.StorageEntry;
+import com.ethercamp.contrdata.storage.StoragePage;
+import org.ethereum.util.blockchain.SolidityContract;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchedValuesTest extends BaseTest {
+
+    private static final String SOURCE = "contract Values {\n" +
+            "    uint number = 42;\n" +
+            "    string short = 'short';\n" +
+            "    string long = 'a string which is too long to be kept in a single storage slot';\n" +
+            "    bytes data;\n" +
+            "    bool flag = true;\n" +
+            "    function Values() {\n" +
+            "        data.push(0x01);\n" +
+            "        data.push(0x02);\n" +
+            "    }\n" +
+            "}";
+
+    @Autowired
+    private ContractDataService contractDataService;
+
+    @Test
+    public void testPageValuesMatchSingleReads() throws IOException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Values");
+        blockchain.createBlock();
+
+        ContractData contractData = getContractData(contract, SOURCE, "Values");
+        StoragePage page = contractDataService.getContractData(contract.getAddress(), contractData, false, Path.empty(), 0, 100);
+        List<ContractData.Element> members = contractData.elementByPath().getAllChildren();
+
+        assertEquals(members.size(), page.getEntries().size());
+        for (int i = 0; i < members.size(); i++) {
+            StorageEntry.Value value = (StorageEntry.Value) page.getEntries().get(i).getValue();
+            assertEquals(members.get(i).getValue(newValueExtractor(contract)), value.getDecoded());
+        }
+    }
+}
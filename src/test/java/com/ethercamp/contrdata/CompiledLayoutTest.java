@@ -0,0 +1,56 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.contract.CompiledLayout;
+import com.ethercamp.contrdata.contract.ContractData;
+import com.ethercamp.contrdata.contract.Member;
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionary;
+import org.ethereum.datasource.HashMapDB;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class CompiledLayoutTest extends BaseTest {
+
+    private static final String SOURCE = "contract Layout {\n" +
+            "    enum State { Created, Closed }\n" +
+            "    struct Entry {\n" +
+            "        uint id;\n" +
+            "        address owner;\n" +
+            "    }\n" +
+            "    State state;\n" +
+            "    Entry entry;\n" +
+            "    mapping(uint => Entry) entries;\n" +
+            "}";
+
+    @Test
+    public void testLayoutSharedBetweenBindings() throws IOException {
+        String json = getContractAllDataMembers(SOURCE, "Layout").toJson();
+
+        ContractData first = ContractData.parse(json, new StorageDictionary(new HashMapDB()));
+        ContractData second = ContractData.parse(json, new StorageDictionary(new HashMapDB()));
+
+        assertSame(first.getLayout(), second.getLayout());
+        assertNotSame(first.getDictionary(), second.getDictionary());
+        assertSame(CompiledLayout.compile(json), first.getLayout());
+
+        CompiledLayout layout = first.getLayout();
+        assertEquals(3, layout.getMembers().size());
+        assertEquals(2, layout.getStructFields("Entry").size());
+        assertEquals(asList(0, 1, 3), layout.getMembers().stream().map(Member::getStorageIndex).collect(toList()));
+        assertEquals(2, layout.getMembers().findByName("entry").reservedSlotsCount());
+        assertEquals(20, layout.getStructFields("Entry").findByName("owner").getSize());
+        assertEquals("Closed", layout.getEnumValueByOrdinal(layout.getMembers().findByName("state").getType().asEnum(), 1));
+
+        Member entry = layout.getMembers().findByName("entry");
+        Member owner = layout.getStructFields("Entry").findByName("owner");
+        assertEquals(2, layout.getSlotsCount(entry.getType().asStruct()));
+        assertEquals(2, layout.getSlotsCount(entry.getType()));
+        assertEquals(20, layout.getSize(owner.getType()));
+        assertEquals(1, layout.getSlotsCount(layout.getMembers().findByName("entries").getType()));
+        assertSame(entry, layout.getMembers().findByPosition(entry.getPosition()));
+    }
+}
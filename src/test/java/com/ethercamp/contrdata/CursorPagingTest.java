@@ -0,0 +1,99 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.contract.ContractData;
+import com.ethercamp.contrdata.storage.Path;
+import com.ethercamp.contrdata.storage.StorageCursorPage;
+import com.ethercamp.contrdata.storage.StorageEntry;
+import com.ethercamp.contrdata.storage.StoragePage;
+import com.ethercamp.contrdata.storage.dictionary.Layout;
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionary;
+import org.ethereum.util.blockchain.SolidityContract;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CursorPagingTest extends BaseTest {
+
+    private static final String SOURCE = "contract Paged {\n" +
+            "    uint first = 1;\n" +
+            "    mapping(uint => uint) values;\n" +
+            "    uint[] items;\n" +
+            "    uint last = 2;\n" +
+            "    function fill(uint count) {\n" +
+            "        for (uint i = 0; i < count; i++) {\n" +
+            "            values[i] = i + 1;\n" +
+            "            items.push(i + 1);\n" +
+            "        }\n" +
+            "    }\n" +
+            "}";
+
+    @Autowired
+    private ContractDataService contractDataService;
+
+    private static List<String> paths(List<StorageEntry> entries) {
+        return entries.stream()
+                .map(entry -> ((StorageEntry.Key) entry.getKey()).getPath())
+                .collect(toList());
+    }
+
+    private List<String> smartPaths(SolidityContract contract, ContractData contractData, Path path, int size) {
+        List<StorageEntry> result = new ArrayList<>();
+        String cursor = null;
+        do {
+            StorageCursorPage page = contractDataService.getContractData(contract.getAddress(), contractData, false, path, cursor, size);
+            result.addAll(page.getEntries());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        return paths(result);
+    }
+
+    private List<String> structuredPaths(SolidityContract contract, StorageDictionary dictionary, Path path, int size) {
+        List<StorageEntry> result = new ArrayList<>();
+        String cursor = null;
+        do {
+            StorageCursorPage page = contractDataService.getStructuredStorageEntries(contract.getAddress(), dictionary, path, cursor, size);
+            result.addAll(page.getEntries());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        return paths(result);
+    }
+
+    @Test
+    public void testCursorPagesMatchOffsetPages() throws IOException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Paged");
+        contract.callFunction("fill", 5);
+        blockchain.createBlock();
+
+        ContractData contractData = getContractData(contract, SOURCE, "Paged");
+        for (Path path : new Path[]{Path.empty(), Path.of(1), Path.of(2)}) {
+            StoragePage all = contractDataService.getContractData(contract.getAddress(), contractData, false, path, 0, 100);
+            assertEquals(paths(all.getEntries()), smartPaths(contract, contractData, path, 2));
+        }
+
+        StorageDictionary dictionary = dictDb.getDictionaryFor(Layout.Lang.solidity, contract.getAddress());
+        StoragePage all = contractDataService.getStructuredStorageEntries(contract.getAddress(), dictionary, Path.empty(), 0, 100);
+        assertEquals(paths(all.getEntries()), structuredPaths(contract, dictionary, Path.empty(), 2));
+    }
+
+    @Test
+    public void testLastPage() throws IOException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Paged");
+        contract.callFunction("fill", 3);
+        blockchain.createBlock();
+
+        ContractData contractData = getContractData(contract, SOURCE, "Paged");
+        StorageCursorPage page = contractDataService.getContractData(contract.getAddress(), contractData, false, Path.of(1), null, 10);
+        assertEquals(3, page.getEntries().size());
+        assertEquals(3, page.getTotal());
+        assertNull(page.getNextCursor());
+    }
+}
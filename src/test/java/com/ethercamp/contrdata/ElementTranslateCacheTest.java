@@ -0,0 +1,120 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.contract.ContractData;
+import com.ethercamp.contrdata.storage.PageCursor;
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionary;
+import org.ethereum.util.blockchain.SolidityContract;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Objects.nonNull;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.Assert.*;
+
+public class ElementTranslateCacheTest extends BaseTest {
+
+    private static final String SOURCE = "contract Shared {\n" +
+            "    mapping(uint => uint[]) values;\n" +
+            "    function Shared() {\n" +
+            "        for (uint i = 0; i < 10; i++) {\n" +
+            "            values[i].push(i);\n" +
+            "            values[i].push(i + 1);\n" +
+            "        }\n" +
+            "    }\n" +
+            "}";
+
+    @Test
+    public void testElementsEqualByPath() throws IOException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Shared");
+        blockchain.createBlock();
+
+        ContractData contractData = getContractData(contract, SOURCE, "Shared");
+        ContractData.Element first = getElement(contractData, "values[3][1]");
+        ContractData.Element second = getElement(contractData, "values[3][1]");
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(first, getElement(contractData, "values[3][0]"));
+        assertSame(first.toDictionaryPathElement(), second.toDictionaryPathElement());
+    }
+
+    @Test
+    public void testSharedBetweenThreads() throws Exception {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Shared");
+        blockchain.createBlock();
+
+        ContractData contractData = getContractData(contract, SOURCE, "Shared");
+        Callable<List<StorageDictionary.PathElement>> task = () -> range(0, 10)
+                .mapToObj(i -> getElement(contractData, "values[%d][1]", i).toDictionaryPathElement())
+                .collect(toList());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<StorageDictionary.PathElement>>> results = executor.invokeAll(range(0, 8).mapToObj(i -> task).collect(toList()));
+            List<StorageDictionary.PathElement> expected = results.get(0).get();
+            assertFalse(expected.contains(null));
+            for (Future<List<StorageDictionary.PathElement>> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(contractData.getElementTranslateCache().getHitRate() > 0);
+        assertTrue(contractData.getElementTranslateCache().size() <= ContractData.TRANSLATE_CACHE_SIZE);
+    }
+
+    private static List<String> keys(List<ContractData.Element> elements) {
+        return elements.stream().map(ContractData.Element::getKey).collect(toList());
+    }
+
+    // entries with their items by pages, then entries by cursor pages
+    private static List<String> pageAll(ContractData contractData) {
+        List<String> result = new ArrayList<>();
+        ContractData.Element values = getElement(contractData, "values");
+        for (int page = 0; page * 3 < values.getChildrenCount(); page++) {
+            for (ContractData.Element entry : values.getChildren(page, 3)) {
+                result.add(entry.getKey() + ":" + keys(entry.getChildren(0, 10)));
+            }
+        }
+
+        PageCursor cursor = null;
+        do {
+            List<ContractData.Element> page = values.getChildren(cursor, 4, false);
+            result.addAll(keys(page));
+            cursor = page.size() < 4 ? null : page.get(page.size() - 1).toCursor();
+        } while (nonNull(cursor));
+        return result;
+    }
+
+    @Test
+    public void testChildrenPagedBetweenThreads() throws Exception {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Shared");
+        blockchain.createBlock();
+
+        List<String> expected = pageAll(getContractData(contract, SOURCE, "Shared"));
+        assertEquals(20, expected.size());
+
+        // dictionary elements are loaded by the paging threads themselves
+        ContractData contractData = getContractData(contract, SOURCE, "Shared");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = executor.invokeAll(range(0, 8)
+                    .mapToObj(i -> (Callable<List<String>>) () -> pageAll(contractData))
+                    .collect(toList()));
+            for (Future<List<String>> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.contract.ContractData;
+import com.ethercamp.contrdata.storage.Path;
+import org.ethereum.util.blockchain.SolidityContract;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class PointLookupTest extends BaseTest {
+
+    private static final String SOURCE = "contract Lookup {\n" +
+            "    struct Item {\n" +
+            "        uint id;\n" +
+            "        bool active;\n" +
+            "        string name;\n" +
+            "    }\n" +
+            "    mapping(address => uint) balances;\n" +
+            "    Item[] items;\n" +
+            "    mapping(uint => Item) byId;\n" +
+            "    uint16[4] packed;\n" +
+            "    mapping(uint => uint) byBigId;\n" +
+            "    mapping(bytes32 => uint) byHash;\n" +
+            "    string title = 'a title which is too long to be kept in a single storage slot';\n" +
+            "    function Lookup() {\n" +
+            "        balances[0x1234567890123456789012345678901234567890] = 100;\n" +
+            "        items.push(Item(1, true, 'first'));\n" +
+            "        items.push(Item(2, false, 'second'));\n" +
+            "        byId[7] = Item(7, true, 'seventh');\n" +
+            "        packed[2] = 300;\n" +
+            "        byBigId[1234567890123456789012345678901234567890] = 5;\n" +
+            "        byHash[0x00000000000000000000000000000000000000000000000000000000000000ff] = 6;\n" +
+            "    }\n" +
+            "}";
+
+    @Autowired
+    private ContractDataService contractDataService;
+
+    private String lookup(SolidityContract contract, ContractData contractData, String path) {
+        return contractDataService.lookupValue(contract.getAddress(), contractData, Path.parseHumanReadable(path, contractData));
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Lookup");
+        blockchain.createBlock();
+
+        ContractData contractData = getContractData(contract, SOURCE, "Lookup");
+
+        assertEquals("100", lookup(contract, contractData, "balances[0x1234567890123456789012345678901234567890]"));
+        assertEquals("0", lookup(contract, contractData, "balances[0x0000000000000000000000000000000000000001]"));
+        assertEquals("2", lookup(contract, contractData, "items[1].id"));
+        assertEquals("false", lookup(contract, contractData, "items[1].active"));
+        assertEquals("first", lookup(contract, contractData, "items[0].name"));
+        assertEquals("seventh", lookup(contract, contractData, "byId[7].name"));
+        assertEquals("300", lookup(contract, contractData, "packed[2]"));
+        // a 40 digit uint key is decimal, a bytes32 key is hex with or without the prefix
+        assertEquals("5", lookup(contract, contractData, "byBigId[1234567890123456789012345678901234567890]"));
+        assertEquals("6", lookup(contract, contractData, "byHash[00000000000000000000000000000000000000000000000000000000000000ff]"));
+        assertEquals("6", lookup(contract, contractData, "byHash[0x00000000000000000000000000000000000000000000000000000000000000ff]"));
+        assertEquals("a title which is too long to be kept in a single storage slot", lookup(contract, contractData, "title"));
+    }
+
+    @Test
+    public void testMatchesDictionaryValues() throws IOException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Lookup");
+        blockchain.createBlock();
+
+        ContractData contractData = getContractData(contract, SOURCE, "Lookup");
+        for (String path : new String[]{"items[0].id", "items[1].active", "byId[7].id", "packed[2]"}) {
+            ContractData.Element element = getElement(contractData, path);
+            assertEquals(element.getValue(newValueExtractor(contract)), lookup(contract, contractData, path));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.contract.ContractData;
+import org.ethereum.util.blockchain.SolidityContract;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+
+public class SparseArrayTest extends BaseTest {
+
+    private static final String SOURCE = "contract Sparse {\n" +
+            "    uint[] items;\n" +
+            "    function Sparse() {\n" +
+            "        items.length = 2 ** 40;\n" +
+            "        items[1] = 10;\n" +
+            "        items[5] = 50;\n" +
+            "        items[2 ** 35] = 20;\n" +
+            "    }\n" +
+            "}";
+
+    @Test
+    public void testItemsBeyondIntRange() throws IOException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE, "Sparse");
+        blockchain.createBlock();
+
+        ContractData contractData = getContractData(contract, SOURCE, "Sparse");
+        ContractData.Element items = getElement(contractData, "items");
+
+        // the far item is stored under a 256-bit key and isn't collapsed onto index 0
+        assertEquals(2, items.getChildrenCount());
+        assertEquals(asList("1", "5"), items.getChildren(0, 10).stream()
+                .map(ContractData.Element::getKey)
+                .collect(toList()));
+    }
+}
@@ -0,0 +1,62 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.storage.dictionary.Layout;
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionary;
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionaryBackfill;
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionaryDb;
+import com.ethercamp.contrdata.storage.dictionary.StorageDictionaryVmHook;
+import org.ethereum.core.BlockchainImpl;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.util.blockchain.SolidityContract;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactoryImpl;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StorageDictionaryBackfillTest extends BaseTest {
+
+    private static final String SOURCE = "contract Registry {\n" +
+            "    mapping(uint => uint) values;\n" +
+            "    mapping(address => uint[]) lists;\n" +
+            "    function set(uint key, uint value) {\n" +
+            "        values[key] = value;\n" +
+            "        lists[msg.sender].push(value);\n" +
+            "    }\n" +
+            "}";
+
+    @Autowired
+    private StorageDictionaryVmHook vmHook;
+
+    @Test
+    public void testBackfill() throws InterruptedException {
+        SolidityContract contract = blockchain.submitNewContract(SOURCE);
+        for (int i = 0; i < 20; i++) {
+            contract.callFunction("set", i, i * 100);
+        }
+
+        BlockchainImpl blockchainImpl = (BlockchainImpl) blockchain.getBlockchain();
+        ProgramInvokeFactoryImpl programInvokeFactory = new ProgramInvokeFactoryImpl();
+        programInvokeFactory.setBlockchain(blockchainImpl);
+
+        StorageDictionaryDb backfillDb = new StorageDictionaryDb(new HashMapDB());
+        StorageDictionaryBackfill backfill = new StorageDictionaryBackfill(vmHook, backfillDb,
+                blockchainImpl.getBlockStore(), blockchainImpl.getRepository(), programInvokeFactory);
+        backfill.setReplayThreads(4);
+        backfill.setWriterThreads(2);
+
+        long bestNumber = blockchainImpl.getBestBlock().getNumber();
+        StorageDictionaryBackfill.Stats stats = backfill.run(1, bestNumber);
+
+        assertEquals(0, stats.getErrors());
+        assertEquals(bestNumber, stats.getBlocks());
+        assertEquals(21, stats.getTransactions());
+        assertTrue(stats.getKeys() > 0);
+
+        StorageDictionary live = dictDb.getDictionaryFor(Layout.Lang.solidity, contract.getAddress());
+        StorageDictionary replayed = backfillDb.getDictionaryFor(Layout.Lang.solidity, contract.getAddress());
+        // blocks are replayed in parallel but written in order, so the siblings are linked the same way
+        assertEquals(live.dmp(), replayed.dmp());
+    }
+}
@@ -0,0 +1,70 @@
+package com.ethercamp.contrdata;
+
+import com.ethercamp.contrdata.storage.dictionary.Layout;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.blockchain.SolidityContract;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Set;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.spongycastle.util.encoders.Hex.toHexString;
+
+public class StorageDictionaryRevertTest extends BaseTest {
+
+    private static final String SOURCE = "contract Store {\n" +
+            "    mapping(uint => uint) values;\n" +
+            "    function set(uint key) {\n" +
+            "        values[key] = 1;\n" +
+            "    }\n" +
+            "    function setAndFail(uint key) {\n" +
+            "        values[key] = 1;\n" +
+            "        throw;\n" +
+            "    }\n" +
+            "}\n" +
+            "contract Caller {\n" +
+            "    Store store = new Store();\n" +
+            "    function setAndFail(uint key) {\n" +
+            "        store.set(key);\n" +
+            "        throw;\n" +
+            "    }\n" +
+            "    function storeAddress() returns (address) {\n" +
+            "        return store;\n" +
+            "    }\n" +
+            "}";
+
+    private static String mapKey(int key) {
+        return toHexString(sha3(ByteUtil.merge(new DataWord(key).getData(), new DataWord(0).getData())));
+    }
+
+    private Set<String> dictionaryKeys(byte[] address) {
+        return dictDb.getDictionaryFor(Layout.Lang.solidity, address).dmp().keySet();
+    }
+
+    @Test
+    public void testFailedFramesDiscarded() {
+        SolidityContract store = blockchain.submitNewContract(SOURCE, "Store");
+        store.callFunction("set", 1);
+        store.callFunction("setAndFail", 2);
+        blockchain.createBlock();
+
+        Set<String> keys = dictionaryKeys(store.getAddress());
+        assertTrue(keys.contains(mapKey(1)));
+        assertFalse(keys.contains(mapKey(2)));
+    }
+
+    @Test
+    public void testNestedCallDiscardedWithCaller() {
+        SolidityContract caller = blockchain.submitNewContract(SOURCE, "Caller");
+        Object result = caller.callConstFunction("storeAddress")[0];
+        byte[] storeAddress = result instanceof BigInteger ? ByteUtil.bigIntegerToBytes((BigInteger) result, 20) : (byte[]) result;
+        caller.callFunction("setAndFail", 3);
+        blockchain.createBlock();
+
+        assertFalse(dictionaryKeys(storeAddress).contains(mapKey(3)));
+    }
+}
@@ -0,0 +1,41 @@
+package com.ethercamp.contrdata.contract;
+
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class SortedIndexesTest {
+
+    private static int[] collect(int... values) {
+        ContractData.SortedIndexes indexes = new ContractData.SortedIndexes();
+        IntStream.of(values).forEach(indexes::add);
+        return indexes.toArray();
+    }
+
+    @Test
+    public void testOrdered() {
+        assertArrayEquals(new int[]{0, 1, 5}, collect(0, 1, 5));
+        assertArrayEquals(new int[0], collect());
+    }
+
+    @Test
+    public void testUnordered() {
+        assertArrayEquals(new int[]{1, 3, 5}, collect(5, 1, 3, 1, 5));
+        assertArrayEquals(new int[]{0, 2, 7}, collect(2, 7, 0, 7));
+    }
+
+    @Test
+    public void testSlotsOfSameItemDeduplicated() {
+        // items of a struct array take several slots each
+        assertArrayEquals(new int[]{0, 1, 2}, collect(0, 0, 1, 1, 2, 2));
+    }
+
+    @Test
+    public void testGrows() {
+        int[] expected = IntStream.range(0, 100).toArray();
+        assertArrayEquals(expected, collect(IntStream.range(0, 100).map(i -> 99 - i).toArray()));
+        assertArrayEquals(expected, collect(expected));
+    }
+}
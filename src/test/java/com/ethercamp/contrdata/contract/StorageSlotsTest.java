@@ -0,0 +1,78 @@
+package com.ethercamp.contrdata.contract;
+
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.math.BigInteger;
+
+import static org.apache.commons.lang3.StringUtils.leftPad;
+import static org.apache.commons.lang3.StringUtils.rightPad;
+import static org.junit.Assert.assertEquals;
+
+public class StorageSlotsTest {
+
+    private static final String HEX_ID = "00000000000000000000000000000000000000000000000000000000000000ff";
+    private static final String ADDRESS = "1234567890123456789012345678901234567890";
+
+    private static Ast.Type type(String name) {
+        return new Ast.Type.Elementary(null, name);
+    }
+
+    private static String encode(String key, String typeName) {
+        return Hex.toHexString(StorageSlots.encodeKey(key, type(typeName)));
+    }
+
+    private static String word(BigInteger value) {
+        return leftPad(value.toString(16), 64, '0');
+    }
+
+    @Test
+    public void testNumberKeysAreDecimal() {
+        // 40 digits, as long as an address in hex
+        String key = "1234567890123456789012345678901234567890";
+        assertEquals(word(new BigInteger(key)), encode(key, "uint256"));
+        assertEquals(word(new BigInteger(key)), encode(key, "int256"));
+        assertEquals(word(BigInteger.valueOf(255)), encode("255", "uint8"));
+        assertEquals(word(BigInteger.valueOf(255)), encode("0xff", "uint256"));
+        assertEquals(rightPad("", 64, 'f'), encode("-1", "int256"));
+    }
+
+    @Test
+    public void testHexKeys() {
+        assertEquals(HEX_ID, encode(HEX_ID, "bytes32"));
+        assertEquals(HEX_ID, encode("0x" + HEX_ID, "bytes32"));
+        assertEquals(rightPad("abcd", 64, '0'), encode("abcd", "bytes4"));
+        assertEquals(rightPad("ab", 64, '0'), encode("ab", "byte"));
+        assertEquals("abcd", encode("0xabcd", "bytes"));
+    }
+
+    @Test
+    public void testAddressKeys() {
+        assertEquals(leftPad(ADDRESS, 64, '0'), encode(ADDRESS, "address"));
+        assertEquals(leftPad(ADDRESS, 64, '0'), encode("0x" + ADDRESS, "address"));
+        assertEquals(leftPad("1", 64, '0'), encode("0x1", "address"));
+        assertEquals(leftPad(ADDRESS, 64, '0'),
+                Hex.toHexString(StorageSlots.encodeKey(ADDRESS, new Ast.Type.Contract(null, "Token"))));
+    }
+
+    @Test
+    public void testOtherKeys() {
+        assertEquals("6b6579", encode("key", "string"));
+        assertEquals(leftPad("1", 64, '0'), encode("true", "bool"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHexNumberWithoutPrefix() {
+        encode("ff", "uint256");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFixedBytesTooLong() {
+        encode("abcdef", "bytes2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddressTooLong() {
+        encode(HEX_ID, "address");
+    }
+}
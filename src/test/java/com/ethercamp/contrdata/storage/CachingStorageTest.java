@@ -0,0 +1,121 @@
+package com.ethercamp.contrdata.storage;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class CachingStorageTest {
+
+    private static final byte[] ADDRESS = new byte[20];
+
+    private final Map<ByteArrayWrapper, Map<DataWord, DataWord>> states = new HashMap<>();
+    private final AtomicInteger reads = new AtomicInteger();
+    private final AtomicReference<byte[]> root = new AtomicReference<>(new byte[]{1});
+
+    // values of the state with the current root
+    private Map<DataWord, DataWord> values() {
+        return states.computeIfAbsent(new ByteArrayWrapper(root.get()), r -> new HashMap<>());
+    }
+
+    private void importState(byte[] newRoot) {
+        Map<DataWord, DataWord> previous = values();
+        root.set(newRoot);
+        values().putAll(previous);
+    }
+
+    private Storage snapshot(byte[] stateRoot) {
+        return new Storage() {
+            private final Storage map = Storage.fromMap(states.computeIfAbsent(new ByteArrayWrapper(stateRoot), r -> new HashMap<>()));
+
+            @Override
+            public int size(byte[] address) {
+                return map.size(address);
+            }
+
+            @Override
+            public Map<DataWord, DataWord> entries(byte[] address, List<DataWord> keys) {
+                reads.incrementAndGet();
+                return map.entries(address, keys);
+            }
+
+            @Override
+            public Set<DataWord> keys(byte[] address) {
+                return map.keys(address);
+            }
+
+            @Override
+            public DataWord get(byte[] address, DataWord key) {
+                reads.incrementAndGet();
+                return map.get(address, key);
+            }
+        };
+    }
+
+    private CachingStorage storage() {
+        return new CachingStorage(root::get, this::snapshot, 100);
+    }
+
+    @Test
+    public void testCachedByStateRoot() {
+        values().put(new DataWord(1), new DataWord(10));
+        CachingStorage storage = storage();
+
+        assertEquals(new DataWord(10), storage.get(ADDRESS, new DataWord(1)));
+        assertNull(storage.get(ADDRESS, new DataWord(2)));
+        assertEquals(new DataWord(10), storage.get(ADDRESS, new DataWord(1)));
+        assertNull(storage.get(ADDRESS, new DataWord(2)));
+        assertEquals(2, reads.get());
+        assertEquals(0.5, storage.getCache().getHitRate(), 0);
+
+        // new state is read anew
+        importState(new byte[]{2});
+        values().put(new DataWord(1), new DataWord(11));
+        assertEquals(new DataWord(11), storage.get(ADDRESS, new DataWord(1)));
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    public void testReadFromSnapshotOfRoot() {
+        values().put(new DataWord(1), new DataWord(10));
+        byte[] oldRoot = root.get();
+        // a block is imported right after the root is taken
+        CachingStorage storage = new CachingStorage(() -> {
+            byte[] result = root.get();
+            if (result == oldRoot) {
+                importState(new byte[]{2});
+                values().put(new DataWord(1), new DataWord(11));
+            }
+            return result;
+        }, this::snapshot, 100);
+
+        assertEquals(new DataWord(10), storage.get(ADDRESS, new DataWord(1)));
+        assertEquals(new DataWord(11), storage.get(ADDRESS, new DataWord(1)));
+    }
+
+    @Test
+    public void testEntriesFetchMissedOnly() {
+        values().put(new DataWord(1), new DataWord(10));
+        values().put(new DataWord(2), new DataWord(20));
+        CachingStorage storage = storage();
+
+        storage.get(ADDRESS, new DataWord(1));
+        Map<DataWord, DataWord> entries = storage.entries(ADDRESS, asList(new DataWord(1), new DataWord(2), new DataWord(3)));
+
+        assertEquals(2, entries.size());
+        assertEquals(new DataWord(20), entries.get(new DataWord(2)));
+        assertEquals(2, reads.get());
+
+        storage.entries(ADDRESS, asList(new DataWord(2), new DataWord(3)));
+        assertEquals(2, reads.get());
+    }
+}
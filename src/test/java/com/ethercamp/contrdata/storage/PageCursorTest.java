@@ -0,0 +1,34 @@
+package com.ethercamp.contrdata.storage;
+
+import org.junit.Test;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class PageCursorTest {
+
+    @Test
+    public void testEncoding() {
+        PageCursor child = PageCursor.afterChild(sha3(new byte[]{1}));
+        assertEquals(child, PageCursor.decode(child.encode()));
+        assertTrue(PageCursor.decode(child.encode()).is(PageCursor.Kind.Child));
+
+        PageCursor index = PageCursor.afterIndex(100_500);
+        assertEquals(index, PageCursor.decode(index.encode()));
+        assertEquals(100_500, PageCursor.decode(index.encode()).getIndex());
+
+        assertNull(PageCursor.decode(null));
+        assertNull(PageCursor.decode(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidToken() {
+        PageCursor.decode("not a cursor");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedToken() {
+        String encoded = PageCursor.afterChild(sha3(new byte[]{1})).encode();
+        PageCursor.decode(encoded.substring(0, 10));
+    }
+}
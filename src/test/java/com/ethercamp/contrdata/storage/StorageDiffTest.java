@@ -0,0 +1,49 @@
+package com.ethercamp.contrdata.storage;
+
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import static com.ethercamp.contrdata.utils.RandomUtils.randomBytes;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class StorageDiffTest {
+
+    private static StorageDiff.Change change(int oldValue, int newValue) {
+        return new StorageDiff.Change(new DataWord(oldValue), new DataWord(newValue));
+    }
+
+    @Test
+    public void testSerialization() {
+        byte[] first = randomBytes(20);
+        byte[] second = randomBytes(20);
+
+        StorageDiff diff = new StorageDiff();
+        diff.put(first, new DataWord(0), change(0, 1));
+        diff.put(first, new DataWord(randomBytes(32)), change(5, 0));
+        diff.put(second, new DataWord(1), change(1, 2));
+
+        StorageDiff restored = StorageDiff.decode(diff.encode());
+        assertEquals(2, restored.getContracts().size());
+        assertEquals(diff.get(first), restored.get(first));
+        assertEquals(diff.get(second), restored.get(second));
+        assertTrue(restored.get(randomBytes(20)).isEmpty());
+    }
+
+    @Test
+    public void testRepeatedChanges() {
+        byte[] address = randomBytes(20);
+
+        StorageDiff diff = new StorageDiff();
+        diff.put(address, new DataWord(7), change(1, 2));
+        diff.put(address, new DataWord(7), change(2, 0));
+
+        StorageDiff.Change change = diff.get(address).get(new DataWord(7));
+        assertEquals(change(1, 0), change);
+        assertTrue(change.isRemoved());
+
+        Storage storage = diff.asStorage(address);
+        assertEquals(1, storage.size(address));
+        assertEquals(new DataWord(0), storage.entries(address, singletonList(new DataWord(7))).get(new DataWord(7)));
+    }
+}
@@ -0,0 +1,243 @@
+package com.ethercamp.contrdata.storage;
+
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.ethercamp.contrdata.utils.RandomUtils.randomBytes;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.rangeClosed;
+import static org.junit.Assert.*;
+
+public class StorageKeyIndexTest {
+
+    private static final byte[] ADDRESS = randomBytes(20);
+
+    private static Map<DataWord, DataWord> entriesOf(int... keys) {
+        Map<DataWord, DataWord> entries = new HashMap<>();
+        for (int key : keys) {
+            entries.put(new DataWord(key), new DataWord(1));
+        }
+        return entries;
+    }
+
+    private static Storage storageOf(int... keys) {
+        return Storage.fromMap(entriesOf(keys));
+    }
+
+    private static List<DataWord> words(int from, int to) {
+        return rangeClosed(from, to).mapToObj(DataWord::new).collect(toList());
+    }
+
+    @Test
+    public void testPaging() {
+        StorageKeyIndex index = new StorageKeyIndex(storageOf(5, 1, 4, 2, 3), 10);
+
+        assertEquals(asList(new DataWord(1), new DataWord(2)), index.keysAfter(ADDRESS, null, 2));
+        assertEquals(asList(new DataWord(3), new DataWord(4)), index.keysAfter(ADDRESS, new DataWord(2), 2));
+        assertEquals(asList(new DataWord(5)), index.keysAfter(ADDRESS, new DataWord(4), 2));
+        assertTrue(index.keysAfter(ADDRESS, new DataWord(5), 2).isEmpty());
+
+        assertEquals(asList(new DataWord(3), new DataWord(4)), index.keys(ADDRESS, 2, 2));
+    }
+
+    @Test
+    public void testUpdate() {
+        Map<DataWord, DataWord> entries = entriesOf(1, 2);
+        StorageKeyIndex index = new StorageKeyIndex(Storage.fromMap(entries), 10);
+        assertEquals(2, index.keysAfter(ADDRESS, null, 10).size());
+
+        StorageDiff diff = new StorageDiff();
+        diff.put(ADDRESS, new DataWord(1), new StorageDiff.Change(new DataWord(1), new DataWord(0)));
+        diff.put(ADDRESS, new DataWord(3), new StorageDiff.Change(new DataWord(0), new DataWord(7)));
+        entries.remove(new DataWord(1));
+        entries.put(new DataWord(3), new DataWord(7));
+        index.update(diff);
+
+        List<DataWord> keys = index.keysAfter(ADDRESS, null, 10);
+        assertEquals(asList(new DataWord(2), new DataWord(3)), keys);
+    }
+
+    @Test
+    public void testBoundedByKeys() {
+        StorageKeyIndex index = new StorageKeyIndex(storageOf(1, 2, 3), 5);
+        byte[] other = randomBytes(20);
+
+        index.keys(ADDRESS, 0, 10);
+        assertEquals(3, index.getKeysCount());
+        index.keys(other, 0, 10);
+        // the least recently used index is evicted
+        assertEquals(1, index.size());
+        assertEquals(3, index.getKeysCount());
+
+        // contract over the bound keeps a sparse index
+        StorageKeyIndex small = new StorageKeyIndex(storageOf(1, 2, 3), 2);
+        assertEquals(3, small.keys(ADDRESS, 0, 10).size());
+        assertEquals(1, small.size());
+        assertEquals(1, small.getKeysCount());
+    }
+
+    @Test
+    public void testBlockDiffs() {
+        Map<DataWord, DataWord> entries = entriesOf(1);
+        StorageKeyIndex index = new StorageKeyIndex(Storage.fromMap(entries), 10);
+        assertEquals(1, index.keys(ADDRESS, 0, 10).size());
+
+        byte[] included = randomBytes(32);
+        byte[] pending = randomBytes(32);
+        index.stage(included, diffOf(2));
+        index.stage(pending, diffOf(3));
+
+        byte[] block1 = randomBytes(32);
+        entries.put(new DataWord(2), new DataWord(1));
+        index.onBlock(block1, randomBytes(32), singletonList(included));
+        assertEquals(asList(new DataWord(1), new DataWord(2)), index.keys(ADDRESS, 0, 10));
+
+        // diff of a transaction out of the block is dropped
+        index.onBlock(randomBytes(32), block1, singletonList(pending));
+        assertEquals(2, index.keys(ADDRESS, 0, 10).size());
+
+        // block from another branch drops the indexes
+        index.onBlock(randomBytes(32), randomBytes(32), emptyList());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testDeletedContract() {
+        Map<DataWord, DataWord> entries = entriesOf(1, 2);
+        StorageKeyIndex index = new StorageKeyIndex(Storage.fromMap(entries), 10);
+        assertEquals(2, index.keys(ADDRESS, 0, 10).size());
+
+        byte[] tx = randomBytes(32);
+        index.stageDeleted(tx, singletonList(ADDRESS));
+        entries.clear();
+        index.onBlock(randomBytes(32), randomBytes(32), singletonList(tx));
+
+        assertEquals(0, index.size());
+        assertTrue(index.keys(ADDRESS, 0, 10).isEmpty());
+    }
+
+    @Test
+    public void testRebuiltOnSizeMismatch() {
+        Map<DataWord, DataWord> entries = entriesOf(1, 2);
+        StorageKeyIndex index = new StorageKeyIndex(Storage.fromMap(entries), 10);
+        assertEquals(2, index.keys(ADDRESS, 0, 10).size());
+
+        // change the index wasn't reported of
+        entries.put(new DataWord(3), new DataWord(1));
+        assertEquals(words(1, 3), index.keys(ADDRESS, 0, 10));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testBuildConcurrentWithUpdate() {
+        Map<DataWord, DataWord> entries = entriesOf(1);
+        StorageDiff diff = diffOf(2);
+        StorageKeyIndex[] holder = new StorageKeyIndex[1];
+        // the diff is applied after the keys the index is built from are read
+        Storage storage = new Storage() {
+            private final Storage delegate = Storage.fromMap(entries);
+
+            @Override
+            public int size(byte[] address) {
+                return delegate.size(address);
+            }
+
+            @Override
+            public Map<DataWord, DataWord> entries(byte[] address, List<DataWord> keys) {
+                return delegate.entries(address, keys);
+            }
+
+            @Override
+            public Set<DataWord> keys(byte[] address) {
+                Set<DataWord> result = new HashSet<>(delegate.keys(address));
+                entries.put(new DataWord(2), new DataWord(1));
+                holder[0].update(diff);
+                return result;
+            }
+
+            @Override
+            public DataWord get(byte[] address, DataWord key) {
+                return delegate.get(address, key);
+            }
+        };
+        holder[0] = new StorageKeyIndex(storage, 10);
+
+        holder[0].keys(ADDRESS, 0, 10);
+        assertEquals(1, holder[0].size());
+        assertEquals(words(1, 2), holder[0].keys(ADDRESS, 0, 10));
+    }
+
+    @Test
+    public void testOverBound() {
+        List<Integer> shuffled = rangeClosed(1, 50).boxed().collect(toList());
+        Collections.shuffle(shuffled);
+        Map<DataWord, DataWord> entries = entriesOf(shuffled.stream().mapToInt(Integer::intValue).toArray());
+        int[] sorts = new int[1];
+        Storage storage = new Storage() {
+            private final Storage delegate = Storage.fromMap(entries);
+
+            @Override
+            public int size(byte[] address) {
+                return delegate.size(address);
+            }
+
+            @Override
+            public Map<DataWord, DataWord> entries(byte[] address, List<DataWord> keys) {
+                return delegate.entries(address, keys);
+            }
+
+            @Override
+            public Set<DataWord> keys(byte[] address) {
+                return delegate.keys(address);
+            }
+
+            @Override
+            public DataWord get(byte[] address, DataWord key) {
+                return delegate.get(address, key);
+            }
+
+            @Override
+            public Iterator<DataWord> sortedKeys(byte[] address) {
+                sorts[0]++;
+                return delegate.sortedKeys(address);
+            }
+        };
+        StorageKeyIndex index = new StorageKeyIndex(storage, 10, 8);
+
+        assertEquals(words(1, 5), index.keys(ADDRESS, 0, 5));
+        assertEquals(1, index.size());
+        assertEquals(7, index.getKeysCount());
+        assertEquals(words(18, 22), index.keys(ADDRESS, 17, 5));
+        assertEquals(words(46, 50), index.keys(ADDRESS, 45, 10));
+        assertTrue(index.keys(ADDRESS, 50, 5).isEmpty());
+
+        assertEquals(words(1, 3), index.keysAfter(ADDRESS, null, 3));
+        assertEquals(words(8, 9), index.keysAfter(ADDRESS, new DataWord(7), 2));
+        assertEquals(words(41, 50), index.keysAfter(ADDRESS, new DataWord(40), 20));
+
+        entries.put(new DataWord(100), new DataWord(1));
+        index.update(diffOf(100));
+        assertEquals(singletonList(new DataWord(100)), index.keys(ADDRESS, 50, 5));
+
+        StorageDiff removed = new StorageDiff();
+        removed.put(ADDRESS, new DataWord(20), new StorageDiff.Change(new DataWord(1), new DataWord(0)));
+        entries.remove(new DataWord(20));
+        index.update(removed);
+        assertEquals(asList(new DataWord(18), new DataWord(19), new DataWord(21), new DataWord(22), new DataWord(23)),
+                index.keys(ADDRESS, 17, 5));
+
+        // pages are taken from the sparse index, keys are sorted once
+        assertEquals(1, sorts[0]);
+    }
+
+    private static StorageDiff diffOf(int addedKey) {
+        StorageDiff diff = new StorageDiff();
+        diff.put(ADDRESS, new DataWord(addedKey), new StorageDiff.Change(new DataWord(0), new DataWord(1)));
+        return diff;
+    }
+}
@@ -0,0 +1,74 @@
+package com.ethercamp.contrdata.storage;
+
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class StorageTest {
+
+    private static final byte[] ADDRESS = new byte[20];
+
+    private static Storage storage() {
+        Map<DataWord, DataWord> entries = new HashMap<>();
+        entries.put(new DataWord(3), new DataWord(30));
+        entries.put(new DataWord(1), new DataWord(10));
+        entries.put(new DataWord(2), new DataWord(20));
+        return Storage.fromMap(entries);
+    }
+
+    @Test
+    public void testBulkGet() {
+        DataWord[] keys = {new DataWord(9), new DataWord(1), new DataWord(4), new DataWord(3)};
+        DataWord[] values = new DataWord[keys.length];
+
+        storage().get(ADDRESS, keys, values, 1, 3);
+
+        assertNull(values[0]);
+        assertEquals(new DataWord(10), values[1]);
+        assertNull(values[2]);
+        assertEquals(new DataWord(30), values[3]);
+    }
+
+    @Test
+    public void testSortedKeys() {
+        List<DataWord> keys = new ArrayList<>();
+        storage().sortedKeys(ADDRESS).forEachRemaining(keys::add);
+
+        assertEquals(asList(new DataWord(1), new DataWord(2), new DataWord(3)), keys);
+    }
+
+    @Test
+    public void testSortedMapKeysStreamed() {
+        NavigableMap<DataWord, DataWord> entries = new ConcurrentSkipListMap<>();
+        entries.put(new DataWord(2), new DataWord(20));
+        entries.put(new DataWord(1), new DataWord(10));
+
+        Iterator<DataWord> keys = Storage.fromMap(entries).sortedKeys(ADDRESS);
+        assertEquals(new DataWord(1), keys.next());
+        // iterated lazily over the map itself
+        entries.put(new DataWord(3), new DataWord(30));
+        assertEquals(new DataWord(2), keys.next());
+        assertEquals(new DataWord(3), keys.next());
+        assertFalse(keys.hasNext());
+    }
+
+    @Test
+    public void testAsyncEntries() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Map<DataWord, DataWord> entries = storage().entriesAsync(ADDRESS, asList(new DataWord(2), new DataWord(5)), executor).get();
+
+            assertEquals(1, entries.size());
+            assertEquals(new DataWord(20), entries.get(new DataWord(2)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
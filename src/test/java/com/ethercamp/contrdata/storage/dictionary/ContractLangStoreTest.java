@@ -0,0 +1,39 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class ContractLangStoreTest {
+
+    private static final byte[] SOLIDITY_CODE = Hex.decode("606060405260e060020a6000350463");
+    private static final byte[] UNKNOWN_CODE = Hex.decode("600035601c52740100000000000000");
+
+    @Test
+    public void testDetection() {
+        assertEquals(Layout.Lang.solidity, Layout.Lang.detect(SOLIDITY_CODE));
+        assertEquals(Layout.Lang.solidity, Layout.Lang.detect(Hex.decode("60806040526004361061")));
+        assertNull(Layout.Lang.detect(UNKNOWN_CODE));
+        assertNull(Layout.Lang.detect(new byte[0]));
+    }
+
+    @Test
+    public void testPersisting() {
+        KeyValueDataSource db = new HashMapDB();
+
+        ContractLangStore store = new ContractLangStore(db, db, 10);
+        assertEquals(Layout.Lang.solidity, store.get(sha3(SOLIDITY_CODE), () -> SOLIDITY_CODE));
+        assertNull(store.get(sha3(UNKNOWN_CODE), () -> UNKNOWN_CODE));
+        assertEquals(1, db.keys().size());
+
+        // code isn't looked at anymore
+        ContractLangStore reopened = new ContractLangStore(db, db, 10);
+        assertEquals(Layout.Lang.solidity, reopened.get(sha3(SOLIDITY_CODE), () -> {
+            throw new AssertionError("Code of the known hash is loaded");
+        }));
+    }
+}
@@ -0,0 +1,82 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import org.ethereum.util.RLP;
+import org.junit.Test;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class PathKeyTest {
+
+    private static void assertSerialized(StorageDictionary.PathElement element) {
+        StorageDictionary.PathElement restored = StorageDictionary.PathElement.deserialize(element.serialize());
+        assertEquals(element.key, restored.key);
+        assertEquals(element.key.getKind(), restored.key.getKind());
+        assertEquals(element.key.toString(), restored.key.toString());
+    }
+
+    @Test
+    public void testSerialization() {
+        assertSerialized(new StorageDictionary.PathElement(StorageDictionary.PathElement.Type.Offset, 0, sha3(new byte[]{0})));
+        assertSerialized(new StorageDictionary.PathElement(StorageDictionary.PathElement.Type.ArrayIndex, 300, sha3(new byte[]{1})));
+        assertSerialized(StorageDictionary.PathElement.createMapKey(-1, sha3(new byte[]{2})));
+        assertSerialized(StorageDictionary.PathElement.createMapKey("key", sha3(new byte[]{3})));
+        assertSerialized(StorageDictionary.PathElement.createMapKey("", sha3(new byte[]{4})));
+        assertSerialized(StorageDictionary.PathElement.createMapKey(PathKey.of(UInt256.of(sha3(new byte[]{5}))), sha3(new byte[]{6})));
+    }
+
+    private static StorageDictionary.PathElement deserializeLegacy(StorageDictionary.PathElement.Type type, String key) {
+        byte[] legacy = RLP.encodeList(
+                RLP.encodeInt(type.ordinal()),
+                RLP.encodeString(key),
+                RLP.encodeElement(sha3(key.getBytes())),
+                RLP.encodeElement(new byte[0]),
+                RLP.encodeInt(0),
+                RLP.encodeElement(new byte[0]),
+                RLP.encodeElement(new byte[0]),
+                RLP.encodeElement(new byte[0]),
+                RLP.encodeElement(new byte[0]));
+        return StorageDictionary.PathElement.deserialize(legacy);
+    }
+
+    @Test
+    public void testLegacyDeserialization() {
+        StorageDictionary.PathElement element = deserializeLegacy(StorageDictionary.PathElement.Type.MapKey, "0x1f");
+        assertEquals(PathKey.Kind.Text, element.key.getKind());
+        assertEquals("0x1f", element.key.toString());
+
+        element = deserializeLegacy(StorageDictionary.PathElement.Type.ArrayIndex, "7");
+        assertEquals(PathKey.of(7), element.key);
+        element = deserializeLegacy(StorageDictionary.PathElement.Type.Offset, "2");
+        assertEquals(PathKey.of(2), element.key);
+    }
+
+    @Test
+    public void testLegacyNumericTextKey() {
+        // a string key which looks like a number stays text, the same as when it's inserted now
+        StorageDictionary.PathElement element = deserializeLegacy(StorageDictionary.PathElement.Type.MapKey, "123");
+        assertEquals(PathKey.text("123"), element.key);
+        assertEquals(StorageDictionary.PathElement.createMapKey("123", element.storageKey).key, element.key);
+
+        StorageDictionary.PathElement restored = StorageDictionary.PathElement.deserialize(element.serialize());
+        assertEquals(element.key, restored.key);
+        assertEquals(0, element.compareTo(restored));
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(PathKey.of(12), PathKey.parse("12"));
+        assertEquals(PathKey.of(-3), PathKey.parse("-3"));
+        assertEquals(PathKey.text("012"), PathKey.parse("012"));
+        assertEquals(PathKey.text("99999999999"), PathKey.parse("99999999999"));
+        assertEquals(PathKey.text("0xzz"), PathKey.parse("0xzz"));
+        assertEquals("0xabc", PathKey.parse("0xabc").toString());
+    }
+
+    @Test
+    public void testOrdering() {
+        assertTrue(PathKey.of(9).compareTo(PathKey.of(10)) < 0);
+        assertTrue(PathKey.of(Integer.MAX_VALUE).compareTo(PathKey.parse("0x80000000")) < 0);
+        assertEquals(0, PathKey.parse("0x0abc").compareTo(PathKey.parse("0xabc")));
+    }
+}
@@ -0,0 +1,144 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static com.ethercamp.contrdata.utils.RandomUtils.randomBytes;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class PreimageStoreTest {
+
+    private static void assertFound(byte[] input, PreimageStore store) {
+        byte[] output = sha3(input);
+
+        Sha3Index.Entry entry = store.get(output);
+        assertNotNull(entry);
+        assertTrue(Arrays.equals(input, entry.getInput()));
+        assertTrue(Arrays.equals(output, entry.getOutput()));
+    }
+
+    @Test
+    public void testPersisting() {
+        KeyValueDataSource db = new HashMapDB();
+        byte[] input = randomBytes(64);
+
+        PreimageStore store = new PreimageStore(db, db, 10);
+        store.put(sha3(input), input);
+        assertFound(input, store);
+
+        PreimageStore reopened = new PreimageStore(db, db, 10);
+        assertFound(input, reopened);
+        assertNull(reopened.get(sha3(randomBytes(64))));
+    }
+
+    @Test
+    public void testCacheBounded() {
+        KeyValueDataSource db = new HashMapDB();
+        PreimageStore store = new PreimageStore(db, db, 10);
+
+        for (int i = 0; i < 100; i++) {
+            byte[] input = randomBytes(64);
+            store.put(sha3(input), input);
+        }
+
+        assertEquals(10, store.getCache().size());
+        assertEquals(100, db.keys().size());
+    }
+
+    @Test
+    public void testSha3IndexFallback() {
+        KeyValueDataSource db = new HashMapDB();
+        PreimageStore store = new PreimageStore(db, db, 10);
+
+        byte[] input = randomBytes(64);
+        Sha3Index previous = new Sha3Index(store);
+        previous.add(input);
+        store.putAll(previous.entries());
+
+        Sha3Index index = new Sha3Index(store);
+        assertEquals(0, index.size());
+
+        Sha3Index.Entry entry = index.get(sha3(input));
+        assertNotNull(entry);
+        assertTrue(Arrays.equals(input, entry.getInput()));
+    }
+
+    @Test
+    public void testOffsetLookup() {
+        KeyValueDataSource db = new HashMapDB();
+        PreimageStore store = new PreimageStore(db, db, 10);
+
+        byte[] input = randomBytes(64);
+        byte[] output = sha3(input);
+        store.put(output, input);
+
+        Sha3Index.Entry entry = new Sha3Index(store).get(plus(output, 5));
+        assertNotNull(entry);
+        assertTrue(Arrays.equals(output, entry.getOutput()));
+        assertNull(store.get(UInt256.of(output).subtract(new UInt256(1)).toBytes()));
+
+        // offset carries the key over to the next bucket
+        byte[] bucketEnd = Hex.decode("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaafffffffffffffff0");
+        store.put(bucketEnd, input);
+        entry = new PreimageStore(db, db, 10).get(plus(bucketEnd, 0x20));
+        assertNotNull(entry);
+        assertTrue(Arrays.equals(bucketEnd, entry.getOutput()));
+    }
+
+    @Test
+    public void testFarOffsetLookup() {
+        KeyValueDataSource db = new HashMapDB();
+        PreimageStore store = new PreimageStore(db, db, 10);
+
+        byte[] input = randomBytes(64);
+        byte[] output = sha3(input);
+        store.put(output, input);
+
+        // resolved from the store within the same bound as in the index which hashed it
+        byte[] farKey = plus(output, BigInteger.ONE.shiftLeft(Sha3Index.MAX_OFFSET_BITS - 1).add(BigInteger.TEN));
+        Sha3Index hashing = new Sha3Index();
+        hashing.add(input);
+        assertNotNull(hashing.get(farKey));
+
+        Sha3Index.Entry entry = new Sha3Index(new PreimageStore(db, db, 10)).get(farKey);
+        assertNotNull(entry);
+        assertTrue(Arrays.equals(output, entry.getOutput()));
+
+        byte[] beyondBound = plus(output, BigInteger.ONE.shiftLeft(Sha3Index.MAX_OFFSET_BITS));
+        assertNull(hashing.get(beyondBound));
+        assertNull(new PreimageStore(db, db, 10).get(beyondBound));
+    }
+
+    @Test
+    public void testOnlyResolvedPersisted() {
+        KeyValueDataSource db = new HashMapDB();
+        PreimageStore store = new PreimageStore(db, db, 10);
+
+        byte[] used = randomBytes(64);
+        Sha3Index index = new Sha3Index(store);
+        index.add(used);
+        index.add(randomBytes(64));
+        index.add(randomBytes(96));
+
+        assertNotNull(index.get(plus(sha3(used), 1)));
+        assertEquals(1, index.resolvedEntries().size());
+
+        store.putAll(index.resolvedEntries());
+        assertEquals(1, db.keys().size());
+        assertFound(used, new PreimageStore(db, db, 10));
+    }
+
+    private static byte[] plus(byte[] value, long offset) {
+        return UInt256.of(value).add(new UInt256(offset)).toBytes();
+    }
+
+    private static byte[] plus(byte[] value, BigInteger offset) {
+        return UInt256.of(value).add(UInt256.of(offset.toByteArray())).toBytes();
+    }
+}
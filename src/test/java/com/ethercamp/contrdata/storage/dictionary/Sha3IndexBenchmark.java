@@ -0,0 +1,73 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.ethercamp.contrdata.utils.RandomUtils.randomBytes;
+import static org.ethereum.crypto.HashUtil.sha3;
+
+/**
+ * Per-opcode cost of {@link Sha3Index} operations performed by the VM hook.
+ * Should stay flat while the index grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Sha3IndexBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    @Param({"100", "1000", "10000", "100000"})
+    private int indexSize;
+
+    private Sha3Index index;
+    private byte[][] inputs;
+    private byte[][] outputs;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        index = new Sha3Index();
+        inputs = new byte[SAMPLES][];
+        outputs = new byte[SAMPLES][];
+
+        for (int i = 0; i < indexSize; i++) {
+            byte[] input = randomBytes(64);
+            byte[] output = sha3(input);
+            index.add(input, output);
+
+            if (i < SAMPLES) {
+                inputs[i] = input;
+                outputs[i] = output;
+            }
+        }
+        for (int i = indexSize; i < SAMPLES; i++) {
+            inputs[i] = inputs[i % indexSize];
+            outputs[i] = outputs[i % indexSize];
+        }
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) % SAMPLES;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return index.contains(inputs[next()]);
+    }
+
+    @Benchmark
+    public void addKnown() {
+        int i = next();
+        index.add(inputs[i], outputs[i]);
+    }
+
+    @Benchmark
+    public Sha3Index.Entry get() {
+        return index.get(outputs[next()]);
+    }
+}
@@ -4,6 +4,7 @@ import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.vm.DataWord;
 import org.junit.Test;
 
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.stream.IntStream;
 
@@ -40,6 +41,55 @@ public class Sha3IndexTest {
         assertTrue(index.size() > 0);
     }
 
+    @Test
+    public void testAddingCalculated() {
+        Sha3Index index = new Sha3Index();
+
+        IntStream.range(32, 64).forEach(len -> {
+            byte[] decoded = randomBytes(len);
+            index.add(decoded, sha3(decoded));
+
+            assertAdded(decoded, index);
+        });
+
+        assertEquals(32, index.size());
+    }
+
+    @Test
+    public void testOffsets() {
+        Sha3Index index = new Sha3Index();
+        byte[] input = randomBytes(64);
+        index.add(input);
+        byte[] base = sha3(input);
+
+        for (int bits : new int[]{0, 1, 31, 96, 100, Sha3Index.MAX_OFFSET_BITS}) {
+            byte[] key = UInt256.of(base).add(UInt256.of(BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE).toByteArray())).toBytes();
+            Sha3Index.Entry entry = index.get(key);
+            assertNotNull("offset bits " + bits, entry);
+            assertTrue(Arrays.equals(input, entry.getInput()));
+        }
+
+        byte[] farKey = UInt256.of(base).add(UInt256.of(BigInteger.ONE.shiftLeft(Sha3Index.MAX_OFFSET_BITS).toByteArray())).toBytes();
+        assertNull(index.get(farKey));
+        assertNull(index.get(UInt256.of(base).subtract(new UInt256(1)).toBytes()));
+    }
+
+    @Test
+    public void testNearestBase() {
+        Sha3Index index = new Sha3Index();
+        byte[] slotBase = sha3(new DataWord(3).getData());
+        byte[] key = UInt256.of(slotBase).add(new UInt256(10)).toBytes();
+
+        // array of the top-level storage index
+        assertTrue(Arrays.equals(new DataWord(3).getData(), index.get(key).getInput()));
+
+        // closer base wins
+        byte[] input = randomBytes(64);
+        Sha3Index.Entry closer = new Sha3Index.Entry(UInt256.of(slotBase).add(new UInt256(5)).toBytes(), input);
+        index.add(closer.getInput(), closer.getOutput());
+        assertTrue(Arrays.equals(input, index.get(key).getInput()));
+    }
+
     @Test
     public void testPrecalculatedHahses() {
         Sha3Index index = new Sha3Index();
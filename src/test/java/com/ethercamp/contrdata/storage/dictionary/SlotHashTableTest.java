@@ -0,0 +1,72 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static com.ethercamp.contrdata.utils.RandomUtils.randomBytes;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class SlotHashTableTest {
+
+    private static void assertContains(SlotHashTable table, int index) {
+        byte[] input = new DataWord(index).getData();
+        byte[] output = sha3(input);
+
+        assertTrue(table.containsInput(input));
+
+        Sha3Index.Entry entry = table.get(output);
+        assertNotNull(entry);
+        assertTrue(Arrays.equals(input, entry.getInput()));
+        assertTrue(Arrays.equals(output, entry.getOutput()));
+    }
+
+    @Test
+    public void testCalculated() {
+        SlotHashTable table = SlotHashTable.calculate(2000);
+
+        assertEquals(2000, table.size());
+        IntStream.range(0, 2000).forEach(i -> assertContains(table, i));
+
+        assertFalse(table.containsInput(new DataWord(2000).getData()));
+        assertFalse(table.containsInput(randomBytes(32)));
+        assertFalse(table.containsInput(randomBytes(64)));
+        assertNull(table.get(sha3(new DataWord(2000).getData())));
+        assertNull(table.get(sha3(randomBytes(32))));
+    }
+
+    @Test
+    public void testFloor() {
+        SlotHashTable table = SlotHashTable.calculate(100);
+        byte[] base = sha3(new DataWord(42).getData());
+
+        Sha3Index.Entry entry = table.floor(UInt256.of(base).add(new UInt256(Long.MAX_VALUE)).toBytes(), 64);
+        assertNotNull(entry);
+        assertTrue(Arrays.equals(new DataWord(42).getData(), entry.getInput()));
+
+        assertNull(table.floor(UInt256.of(base).add(new UInt256(Long.MAX_VALUE)).toBytes(), 62));
+        assertNull(table.floor(new DataWord(42).getData(), 128));
+    }
+
+    @Test
+    public void testWriteAndWrap() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SlotHashTable.calculate(300).write(out);
+
+        SlotHashTable table = SlotHashTable.wrap(ByteBuffer.wrap(out.toByteArray()));
+
+        assertEquals(300, table.size());
+        IntStream.range(0, 300).forEach(i -> assertContains(table, i));
+    }
+
+    @Test
+    public void testDefault() {
+        assertTrue(SlotHashTable.getDefault().size() >= SlotHashTable.DEFAULT_SIZE);
+    }
+}
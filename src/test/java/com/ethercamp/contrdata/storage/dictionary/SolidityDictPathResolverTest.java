@@ -0,0 +1,55 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import org.ethereum.util.ByteUtil;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class SolidityDictPathResolverTest {
+
+    // mapping(uint => mapping(uint => uint)) at slot 1
+    private static byte[] nestedMapKey(Sha3Index index, int x, int y) {
+        byte[] parentInput = ByteUtil.merge(new DataWord(x).getData(), new DataWord(1).getData());
+        index.add(parentInput);
+        byte[] input = ByteUtil.merge(new DataWord(y).getData(), sha3(parentInput));
+        index.add(input);
+        return sha3(input);
+    }
+
+    @Test
+    public void testResolvedPathCached() {
+        Layout.SolidityDictPathResolver resolver = new Layout.SolidityDictPathResolver();
+        Sha3Index index = new Sha3Index();
+        byte[] key = nestedMapKey(index, 5, 7);
+
+        StorageDictionary.PathElement[] first = resolver.resolvePath(key, index);
+        assertEquals(5, first.length);
+        assertEquals("7", first[3].key.toString());
+
+        // preimages are not needed anymore
+        StorageDictionary.PathElement[] second = resolver.resolvePath(key, new Sha3Index());
+        assertEquals(first.length, second.length);
+        for (int i = 0; i < first.length; i++) {
+            assertNotSame(first[i], second[i]);
+            assertEquals(first[i].type, second[i].type);
+            assertEquals(first[i].key, second[i].key);
+        }
+        assertEquals(1, resolver.getResolved().getHits());
+    }
+
+    @Test
+    public void testUnresolvedPrefixNotCached() {
+        Layout.SolidityDictPathResolver resolver = new Layout.SolidityDictPathResolver();
+        Sha3Index index = new Sha3Index();
+        byte[] key = nestedMapKey(index, 5, 7);
+
+        Sha3Index partial = new Sha3Index();
+        partial.add(ByteUtil.merge(new DataWord(7).getData(), sha3(ByteUtil.merge(new DataWord(5).getData(), new DataWord(1).getData()))));
+        assertEquals(3, resolver.resolvePath(key, partial).length);
+        assertEquals(0, resolver.getResolved().size());
+
+        assertEquals(5, resolver.resolvePath(key, index).length);
+    }
+}
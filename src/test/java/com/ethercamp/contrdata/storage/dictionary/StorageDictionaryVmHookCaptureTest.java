@@ -0,0 +1,54 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import com.ethercamp.contrdata.BaseTest;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.vm.VM;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvokeMockImpl;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static com.ethercamp.contrdata.utils.RandomUtils.randomBytes;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class StorageDictionaryVmHookCaptureTest extends BaseTest {
+
+    @Autowired
+    private StorageDictionaryVmHook vmHook;
+
+    // PUSH1 1, PUSH32 key, SSTORE
+    private static byte[] storeKey(byte[] key) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        code.write(0x60);
+        code.write(1);
+        code.write(0x7f);
+        code.write(key, 0, key.length);
+        code.write(0x55);
+        code.write(0x00);
+        return code.toByteArray();
+    }
+
+    @Test
+    public void testResolvedByTargetStore() {
+        byte[] input = randomBytes(64);
+        byte[] hash = sha3(input);
+        byte[] key = UInt256.of(hash).add(new UInt256(1)).toBytes();
+
+        // preimage was hashed in an earlier block and persisted in the target DB only
+        StorageDictionaryDb targetDb = new StorageDictionaryDb(new HashMapDB());
+        targetDb.getPreimageStore().put(hash, input);
+        assertNull(dictDb.getPreimageStore().get(key));
+
+        Program program = new Program(storeKey(key), new ProgramInvokeMockImpl());
+        BlockChanges changes = vmHook.capture(1, targetDb.getPreimageStore(), () -> new VM().play(program));
+
+        assertEquals(1, changes.getContracts().size());
+        Sha3Index.Entry entry = changes.getContracts().iterator().next().getSha3Index().get(key);
+        assertNotNull(entry);
+        assertTrue(Arrays.equals(input, entry.getInput()));
+    }
+}
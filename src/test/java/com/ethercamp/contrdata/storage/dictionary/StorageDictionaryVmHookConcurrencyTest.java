@@ -0,0 +1,93 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import com.ethercamp.contrdata.BaseTest;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.VM;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvokeMockImpl;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class StorageDictionaryVmHookConcurrencyTest extends BaseTest {
+
+    private static final int KEYS = 30;
+    private static final int ROUNDS = 50;
+
+    @Autowired
+    private StorageDictionaryVmHook vmHook;
+
+    // PUSH1 1, PUSH2 key, SSTORE for every key
+    private static byte[] storeKeys(int firstKey) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        for (int key = firstKey; key < firstKey + KEYS; key++) {
+            code.write(0x60);
+            code.write(1);
+            code.write(0x61);
+            code.write(key >> 8);
+            code.write(key);
+            code.write(0x55);
+        }
+        code.write(0x00);
+        return code.toByteArray();
+    }
+
+    private static Set<ByteArrayWrapper> expectedKeys(int firstKey) {
+        Set<ByteArrayWrapper> result = new HashSet<>();
+        for (int key = firstKey; key < firstKey + KEYS; key++) {
+            result.add(new ByteArrayWrapper(new DataWord(key).getData()));
+        }
+        return result;
+    }
+
+    private static Set<ByteArrayWrapper> capturedKeys(Collection<ContractChanges> contracts) {
+        Set<ByteArrayWrapper> result = new HashSet<>();
+        contracts.forEach(contract -> contract.getStorageKeys().forEach((key, change) -> result.add(key)));
+        return result;
+    }
+
+    private List<Set<ByteArrayWrapper>> play(int firstKey, CyclicBarrier barrier) throws Exception {
+        byte[] code = storeKeys(firstKey);
+        List<Set<ByteArrayWrapper>> result = new ArrayList<>();
+        for (int i = 0; i < ROUNDS; i++) {
+            Program program = new Program(code, new ProgramInvokeMockImpl());
+            barrier.await();
+            BlockChanges changes = vmHook.capture(i, dictDb.getPreimageStore(), () -> new VM().play(program));
+            assertEquals(1, changes.getContracts().size());
+            result.add(capturedKeys(changes.getContracts()));
+        }
+        return result;
+    }
+
+    @Test
+    public void testConcurrentExecutions() throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Set<ByteArrayWrapper>>> first = executor.submit(() -> play(0, barrier));
+            Future<List<Set<ByteArrayWrapper>>> second = executor.submit(() -> play(1000, barrier));
+
+            for (Set<ByteArrayWrapper> keys : first.get()) {
+                assertEquals(expectedKeys(0), keys);
+            }
+            for (Set<ByteArrayWrapper> keys : second.get()) {
+                assertEquals(expectedKeys(1000), keys);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.ethercamp.contrdata.storage.dictionary;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.ethereum.util.ByteUtil.bigIntegerToBytes;
+import static org.junit.Assert.*;
+
+public class UInt256Test {
+
+    private static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(256);
+    private static final Random random = new Random(42);
+
+    private static BigInteger randomValue() {
+        // mix of small, carry/borrow prone and random values
+        switch (random.nextInt(3)) {
+            case 0:
+                return BigInteger.valueOf(random.nextInt(1000));
+            case 1:
+                return MODULUS.subtract(BigInteger.valueOf(random.nextInt(1000) + 1));
+            default:
+                return new BigInteger(256, random);
+        }
+    }
+
+    private static byte[] bytes(BigInteger value) {
+        return bigIntegerToBytes(value.mod(MODULUS), 32);
+    }
+
+    @Test
+    public void testArithmetic() {
+        for (int i = 0; i < 10_000; i++) {
+            BigInteger a = randomValue();
+            BigInteger b = randomValue();
+
+            assertArrayEquals(bytes(a.add(b)), UInt256.of(bytes(a)).add(UInt256.of(bytes(b))).toBytes());
+            assertArrayEquals(bytes(a.subtract(b)), UInt256.of(bytes(a)).subtract(UInt256.of(bytes(b))).toBytes());
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(UInt256.of(bytes(a)).compareTo(UInt256.of(bytes(b)))));
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(UInt256.compare(bytes(a), bytes(b))));
+            assertEquals(a.subtract(b).intValue(), UInt256.intDifference(bytes(a), bytes(b)));
+            assertArrayEquals(bytes(a.subtract(BigInteger.ONE)), UInt256.decrement(bytes(a)));
+            assertEquals(a.toString(16), UInt256.of(bytes(a)).toString());
+        }
+    }
+
+    @Test
+    public void testDifferenceFits() {
+        for (int i = 0; i < 10_000; i++) {
+            BigInteger a = randomValue();
+            BigInteger b = randomValue();
+            int bits = random.nextInt(257);
+
+            boolean expected = a.subtract(b).mod(MODULUS).bitLength() <= bits;
+            assertEquals(expected, UInt256.differenceFits(bytes(a), bytes(b), bits));
+        }
+    }
+
+    @Test
+    public void testShortArrays() {
+        assertEquals(new UInt256(0x0102), UInt256.of(new byte[]{1, 2}));
+        assertArrayEquals(bytes(BigInteger.valueOf(0x0101)), UInt256.decrement(new byte[]{1, 2}));
+    }
+
+    @Test
+    public void testParse() {
+        for (int i = 0; i < 1000; i++) {
+            BigInteger value = randomValue();
+            assertEquals(UInt256.of(bytes(value)), UInt256.parse(value.toString(), 10));
+            assertEquals(UInt256.of(bytes(value)), UInt256.parse(value.toString(16), 16));
+            assertEquals(UInt256.of(bytes(value.negate())), UInt256.parse(value.negate().toString(), 10));
+        }
+        assertEquals(64, UInt256.parse("ffffffffffffffff", 16).bitLength());
+        assertTrue(UInt256.parse("-0", 10).isZero());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseOverflow() {
+        UInt256.parse(MODULUS.toString(), 10);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseInvalidDigit() {
+        UInt256.parse("12ab", 10);
+    }
+
+    @Test
+    public void testIsHex() {
+        assertFalse(UInt256.isHex("0x1f"));
+        assertFalse(UInt256.isHex(""));
+        assertTrue(UInt256.isHex("1f"));
+    }
+}
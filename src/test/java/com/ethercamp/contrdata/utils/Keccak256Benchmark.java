@@ -0,0 +1,48 @@
+package com.ethercamp.contrdata.utils;
+
+import org.ethereum.crypto.HashUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.ethercamp.contrdata.utils.RandomUtils.randomBytes;
+
+/**
+ * {@link Keccak256} against {@link HashUtil#sha3(byte[])} on the input sizes typical for storage keys:
+ * a slot (32), a mapping key with slot (64) and a key of the nested mapping with Serpent-like paths (160).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Keccak256Benchmark {
+
+    @Param({"32", "64", "160"})
+    private int inputSize;
+
+    private byte[] input;
+    private final byte[] output = new byte[Keccak256.DIGEST_LENGTH];
+
+    @Setup
+    public void setup() {
+        input = randomBytes(inputSize);
+    }
+
+    @Benchmark
+    public byte[] hashUtil() {
+        return HashUtil.sha3(input);
+    }
+
+    @Benchmark
+    public byte[] keccak() {
+        return Keccak256.hash(input);
+    }
+
+    @Benchmark
+    public byte[] keccakIntoBuffer() {
+        Keccak256.hash(input, 0, input.length, output, 0);
+        return output;
+    }
+}
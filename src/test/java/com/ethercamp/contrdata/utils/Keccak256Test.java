@@ -0,0 +1,38 @@
+package com.ethercamp.contrdata.utils;
+
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.Arrays;
+
+import static com.ethercamp.contrdata.utils.RandomUtils.randomBytes;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Keccak256Test {
+
+    @Test
+    public void testKnownHashes() {
+        assertEquals("c5d2460186f7233c927e7db2dcc703c0e500b653ca82273b7bfad8045d85a470", Hex.toHexString(Keccak256.hash(new byte[0])));
+        assertEquals("4e03657aea45a94fc7d47ba826c8d667c0d1e6e33a64a036ec44f58fa12d6c45", Hex.toHexString(Keccak256.hash("abc".getBytes())));
+    }
+
+    @Test
+    public void testSameAsHashUtil() {
+        // covers partial, exactly one and several rate blocks
+        for (int length = 0; length < 500; length++) {
+            byte[] input = randomBytes(length);
+            assertArrayEquals("length " + length, sha3(input), Keccak256.hash(input));
+        }
+    }
+
+    @Test
+    public void testSubRange() {
+        byte[] input = randomBytes(100);
+        byte[] out = new byte[40];
+
+        Keccak256.hash(input, 10, 64, out, 5);
+        assertArrayEquals(sha3(Arrays.copyOfRange(input, 10, 74)), Arrays.copyOfRange(out, 5, 37));
+    }
+}